@@ -1,7 +1,17 @@
-
 package jump61;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import static jump61.Utils.*;
 
 /** An automated Player.
  *  @author Jake Clayton
@@ -13,112 +23,848 @@ class AI extends Player {
      */
     AI(Game game, Side color, long seed) {
         super(game, color);
-        _depth = 4;
+        _maxDepth = Defaults.SEARCH_DEPTH;
+        _timeLimit = Defaults.MOVE_TIME;
+        _threads = Defaults.SEARCH_THREADS;
         _random = new Random(seed);
         _winningValue = Integer.MAX_VALUE;
         _player = getSide();
+        _tableSize = Defaults.TABLE_SIZE;
+    }
+
+    /** Limit the memory used by my transposition table to about MEGABYTES
+     *  megabytes. */
+    void setTableSize(int megabytes) {
+        if (megabytes != _tableSize) {
+            stopPondering();
+            _tableSize = megabytes;
+            _table = null;
+        }
+    }
+
+    /** Search at most PLIES moves ahead.  Requires 0 < PLIES <=
+     *  Defaults.SEARCH_DEPTH. */
+    void setMaxDepth(int plies) {
+        assert 0 < plies && plies <= Defaults.SEARCH_DEPTH;
+        _maxDepth = plies;
+    }
+
+    /** Limit the time spent choosing each move to about MILLIS
+     *  milliseconds, or lift the limit if MILLIS is 0. */
+    void setTimeLimit(long millis) {
+        _timeLimit = millis;
+    }
+
+    /** Search with THREADS threads.  Requires THREADS > 0. */
+    void setThreads(int threads) {
+        assert threads > 0;
+        _threads = threads;
+    }
+
+    /** Treat positions that are rotations or reflections of each other
+     *  as equivalent iff SYMMETRY.  When set, _table holds one entry for
+     *  all images of a position (keyed by Board.canonicalKey), and of
+     *  several moves that a symmetry of the current position carries into
+     *  one another, only the one on the highest-numbered square is
+     *  searched.
+     *
+     *  This is an approximation.  Because an explosion sends its spots to
+     *  the neighboring squares in a fixed order, and a square already due
+     *  to explode gets no spot, the same move on images of a position can
+     *  give results that are not images of each other (in about one move
+     *  in sixty in random play).  So the value found for a position may be
+     *  that of one of its images. */
+    void setSymmetry(boolean symmetry) {
+        if (symmetry != _symmetry) {
+            stopPondering();
+            _symmetry = symmetry;
+            _table = null;
+        }
     }
 
 
-    /** Gets the board state from the current game and uses the minimax to find
-     * and report a move.     */
+    /** Gets the board state from the current game and finds and reports a
+     * move, as for getMoveSquare, returning it as a command, or returns the
+     * command that interrupted the search. */
     @Override
     String getMove() {
+        int choice = getMoveSquare();
+        if (choice == TranspositionTable.NO_MOVE) {
+            String cmnd = _command;
+            _command = null;
+            return cmnd;
+        }
+        Board board = getBoard();
+        return String.format("%d %d", board.row(choice), board.col(choice));
+    }
+
+    /** Gets the board state from the current game and finds and reports a
+     * move: the one found by pondering (see setPondering), if the
+     * opponent made the expected reply, or else the one in the opening
+     * book (see OpeningBook), if there is one, or else one found by
+     * searchForMove.  The search runs on its own thread, reporting its
+     * progress to the game.  It, or the search begun by pondering, is
+     * abandoned if a command other than a move arrives in the meantime
+     * (see Game.pollCommand), in which case I return
+     * TranspositionTable.NO_MOVE and keep the command for getMove. */
+    @Override
+    int getMoveSquare() {
+        if (_command != null) {
+            return TranspositionTable.NO_MOVE;
+        }
         Board board = getGame().getBoard();
         assert getSide() == board.whoseMove();
         assert board.getWinner() == null;
-        int choice = searchForMove();
+        _cancelled = false;
+        int choice = finishPondering(board);
+        if (_command != null) {
+            return TranspositionTable.NO_MOVE;
+        }
+        OpeningBook book = OpeningBook.get();
+        if (choice == TranspositionTable.NO_MOVE && book != null) {
+            choice = book.move(board);
+        }
+        if (choice == TranspositionTable.NO_MOVE) {
+            FutureTask<Integer> task =
+                new FutureTask<>(() -> searchForMove(board));
+            Thread searcher = new Thread(task, "jump61-search");
+            searcher.setDaemon(true);
+            _reporting = true;
+            searcher.start();
+            boolean finished = awaitSearch(searcher);
+            _reporting = false;
+            if (!finished) {
+                return TranspositionTable.NO_MOVE;
+            }
+            try {
+                choice = task.get();
+            } catch (InterruptedException | ExecutionException excp) {
+                throw new Error("search failed", excp);
+            }
+        }
+        startPondering(board, choice);
         getGame().reportMove(board.row(choice), board.col(choice));
-        return String.format("%d %d", board.row(choice), board.col(choice));
+        return choice;
+    }
+
+    /** Record the results of my searches in STORE, and use those found
+     *  there, or do neither if STORE is null. */
+    void setStore(SearchStore store) {
+        _store = store;
+    }
+
+    /** Ponder iff PONDER: after each of my moves, search on a background
+     *  thread the position that would follow the reply I expect (my best
+     *  move for the opponent, as found in _table), until I am next asked
+     *  for a move.  Then, if the opponent made that reply, the search so
+     *  far counts towards my time for the move, and is otherwise
+     *  abandoned. */
+    void setPondering(boolean ponder) {
+        _ponder = ponder;
+        if (!ponder) {
+            stopPondering();
+        }
+    }
+
+    /** Abandon any search begun by pondering. */
+    void stopPondering() {
+        if (_ponderThread != null) {
+            _abort = true;
+            joinPondering();
+        }
+    }
+
+    /** Return a move for the player to move in POSITION after searching
+     *  the game tree to DEPTH>0 moves.  Assumes the game is not over.
+     *
+     *  Searches to depths 1, 2, ..., in turn, returning the move found
+     *  by the deepest search completed within the time limit.  The
+     *  search to depth 1 always completes.  Stops early once a search
+     *  reaches no position at its depth limit, since deeper ones would
+     *  give the same result.
+     *
+     *  With more than one thread, each additional thread runs the same
+     *  iterative search on its own copy of the board, every other one
+     *  a move deeper than the main thread.  They communicate only
+     *  through _table, where each fills in results that the others then
+     *  need not compute.  The move returned is that of the deepest
+     *  search completed by any thread.  It need not be the move a single
+     *  thread would choose at that depth: late-move reductions make the
+     *  values found depend on the order in which moves are searched, and
+     *  so on each thread's killers and history and on what the others
+     *  have left in _table.
+     *
+     *  With a store (see setStore), the result of the search is recorded
+     *  there.  If the store already holds a result for POSITION as deep
+     *  as my depth limit, or, with a time limit, as deep as the last
+     *  search I actually made reached, its move is returned without
+     *  searching.  Results taken from the store never lower that depth,
+     *  and none are taken under a time limit before my first search. */
+    int searchForMove(Board position) {
+        long key = position.hashKey();
+        long stored = probeStore(key);
+        int storedDepth = SearchStore.depth(stored);
+        if (stored != 0
+            && (storedDepth >= _maxDepth
+                || _timeLimit > 0 && _searchedDepth > 0
+                   && storedDepth >= _searchedDepth)
+            && position.isLegal(position.whoseMove(),
+                                SearchStore.move(stored))) {
+            _lastNodes = 0;
+            _lastDepth = storedDepth;
+            debug(1, "%s: depth %d from store", getSide(), storedDepth);
+            return SearchStore.move(stored);
+        }
+        _start = System.currentTimeMillis();
+        _stopAt = _timeLimit > 0 ? _start + _timeLimit : Long.MAX_VALUE;
+        _abort = false;
+        Worker best = search(position);
+        if (!_cancelled) {
+            _searchedDepth = best._completed;
+        }
+        recordStore(key, best._exact ? Defaults.SEARCH_DEPTH
+                    : best._completed, best._value, best._choice);
+        return best._choice;
     }
 
-    /** Return a move after searching the game tree to DEPTH>0 moves
-     *  from the current position. Assumes the game is not over. */
-    private int searchForMove() {
-        Side player = getSide();
-        Board work = new Board(getBoard());
-        assert getSide() == work.whoseMove();
-        int sense;
-        if (player == Side.RED) {
-            sense = 1;
+    /** Search POSITION, as described for searchForMove, until _stopAt
+     *  (once a search to depth 1 is complete) or until _abort is set, and
+     *  return the Worker whose result is deepest.  The caller sets
+     *  _start, _stopAt, and _abort. */
+    private Worker search(Board position) {
+        Board work = new Board(position);
+        if (_table == null) {
+            _table = new TranspositionTable(_tableSize);
+        }
+        _tablebase = Tablebase.forSize(position.size());
+        _table.newSearch();
+        Worker main = new Worker(work, 0);
+        List<Worker> helpers = new ArrayList<>();
+        List<Future<?>> running = new ArrayList<>();
+        if (_threads > 1) {
+            if (_pool == null || _poolSize != _threads - 1) {
+                if (_pool != null) {
+                    _pool.shutdown();
+                }
+                _poolSize = _threads - 1;
+                _pool = Executors.newFixedThreadPool(_poolSize, (r) -> {
+                        Thread t = new Thread(r, "jump61-search");
+                        t.setDaemon(true);
+                        return t;
+                    });
+            }
+            for (int k = 1; k < _threads; k += 1) {
+                Worker helper = new Worker(new Board(work), k);
+                helpers.add(helper);
+                running.add(_pool.submit(helper));
+            }
+        }
+        _workers = new ArrayList<>(helpers);
+        _workers.add(main);
+        main.run();
+        _abort = true;
+        Worker best = main;
+        long nodes = main._nodes;
+        for (int k = 0; k < helpers.size(); k += 1) {
+            try {
+                running.get(k).get();
+            } catch (InterruptedException | ExecutionException excp) {
+                throw new Error("search thread failed", excp);
+            }
+            Worker helper = helpers.get(k);
+            nodes += helper._nodes;
+            if (helper._completed > best._completed) {
+                best = helper;
+            }
+        }
+        _workers = null;
+        _lastNodes = nodes;
+        _lastDepth = best._completed;
+        long time = Math.max(1, System.currentTimeMillis() - _start);
+        debug(1, "%s: depth %d, %d nodes in %d ms (%d nodes/s, %d threads)",
+              getSide(), best._completed, nodes, time, nodes * 1000 / time,
+              _threads);
+        return best;
+    }
+
+    /** If pondering, start searching the position expected after my
+     *  move MOVE in POSITION and the opponent's reply, on a background
+     *  thread.  Does nothing if either move ends the game or I expect no
+     *  reply. */
+    private void startPondering(Board position, int move) {
+        if (!_ponder || _table == null) {
+            return;
+        }
+        Board expected = new Board(position);
+        expected.addSpot(expected.whoseMove(), move);
+        if (expected.getWinner() != null) {
+            return;
+        }
+        int sym = _symmetry ? expected.canonicalSymmetry() : 0;
+        int reply = TranspositionTable.move(
+            _table.probe(expected.symmetricKey(sym)));
+        if (reply == TranspositionTable.NO_MOVE) {
+            return;
+        }
+        reply = expected.geometry().image(Geometry.inverse(sym), reply);
+        if (!expected.isLegal(expected.whoseMove(), reply)) {
+            return;
+        }
+        expected.addSpot(expected.whoseMove(), reply);
+        if (expected.getWinner() != null) {
+            return;
+        }
+        _ponderPosition = expected;
+        _start = System.currentTimeMillis();
+        _stopAt = Long.MAX_VALUE;
+        _abort = false;
+        _ponderThread = new Thread(() -> _pondered = search(expected),
+                                   "jump61-ponder");
+        _ponderThread.setDaemon(true);
+        _ponderThread.start();
+    }
+
+    /** Finish any pondering, returning the move it found if POSITION is
+     *  the one pondered, and otherwise TranspositionTable.NO_MOVE.  On a
+     *  match, lets the search run until my time limit, counted from when
+     *  pondering began, if it has not already, or until a command arrives
+     *  (see awaitSearch); otherwise abandons it. */
+    private int finishPondering(Board position) {
+        if (_ponderThread == null) {
+            return TranspositionTable.NO_MOVE;
+        }
+        boolean hit = position.equals(_ponderPosition);
+        if (hit) {
+            _stopAt = _timeLimit > 0 ? _start + _timeLimit : Long.MAX_VALUE;
         } else {
-            sense = -1;
-        }
-        minMax(work, 0, true, sense, -_winningValue, _winningValue);
-        return _foundMove;
-    }
-
-
-    /** Find a move from position BOARD and return its value, recording
-     *  the move found in _foundMove iff SAVEMOVE. The move
-     *  should have maximal value or have value > BETA if SENSE==1,
-     *  and minimal value or value < ALPHA if SENSE==-1. Searches up to
-     *  DEPTH levels.  Searching at level 0 simply returns a static estimate
-     *  of the board value and does not set _foundMove. If the game is over
-     *  on BOARD, does not set _foundMove. */
-
-    private int minMax(Board board, int depth, boolean saveMove,
-                       int sense, int alpha, int beta) {
-        if (depth == _depth || board.getWinner() != null) {
-            return staticEval(board, _winningValue);
-        }
-        Side playerToMove;
-        int eval;
-        int bestVal;
-        Board test = new Board(board);
-        if (sense == 1) {
-            playerToMove = Side.RED;
-            assert test.whoseMove() == playerToMove;
-            bestVal = -Integer.MAX_VALUE;
-            for (int n = 0; n < test.size() * test.size(); n++) {
-                if (test.isLegal(playerToMove, n)) {
-                    test.addSpot(playerToMove, n);
-                    eval = minMax(test, depth + 1, false, -1, alpha, beta);
-                    test.undo();
-                    if (eval >= bestVal) {
-                        if (saveMove) {
-                            _foundMove = n;
+            _abort = true;
+        }
+        boolean finished = awaitSearch(_ponderThread);
+        joinPondering();
+        Worker best = _pondered;
+        _pondered = null;
+        if (!hit || !finished || best._choice == TranspositionTable.NO_MOVE) {
+            return TranspositionTable.NO_MOVE;
+        }
+        debug(1, "%s: pondered move", getSide());
+        _searchedDepth = best._completed;
+        recordStore(position.hashKey(), best._exact ? Defaults.SEARCH_DEPTH
+                    : best._completed, best._value, best._choice);
+        return best._choice;
+    }
+
+    /** Wait for SEARCHER, a thread running a search, to finish, and
+     *  return true, unless a command other than a move arrives first (see
+     *  Game.pollCommand).  In that case, abandon the search, keep the
+     *  command in _command, and return false once SEARCHER has
+     *  finished. */
+    private boolean awaitSearch(Thread searcher) {
+        try {
+            while (true) {
+                searcher.join(POLL_INTERVAL);
+                if (!searcher.isAlive()) {
+                    return true;
+                }
+                String cmnd = getGame().pollCommand();
+                if (cmnd != null) {
+                    _cancelled = true;
+                    searcher.join();
+                    _command = cmnd;
+                    return false;
+                }
+            }
+        } catch (InterruptedException excp) {
+            throw new Error("search interrupted", excp);
+        }
+    }
+
+    /** Wait for the pondering thread to finish. */
+    private void joinPondering() {
+        try {
+            _ponderThread.join();
+        } catch (InterruptedException excp) {
+            throw new Error("pondering thread interrupted", excp);
+        }
+        _ponderThread = null;
+        _ponderPosition = null;
+    }
+
+    /** Return the result in _store for the position with hash key KEY,
+     *  as packed by SearchStore, or 0 if there is none or _store cannot
+     *  be read. */
+    private long probeStore(long key) {
+        if (_store != null) {
+            try {
+                return _store.probe(key);
+            } catch (IOException excp) {
+                debug(1, "could not read %s: %s", _store.file(),
+                      excp.getMessage());
+            }
+        }
+        return 0;
+    }
+
+    /** Record in _store, if any, that a search to DEPTH moves from the
+     *  position with hash key KEY found value SCORE and move MOVE. */
+    private void recordStore(long key, int depth, int score, int move) {
+        if (_store != null && move != TranspositionTable.NO_MOVE) {
+            try {
+                _store.record(key, depth, score, move);
+            } catch (IOException excp) {
+                debug(1, "could not write %s: %s", _store.file(),
+                      excp.getMessage());
+            }
+        }
+    }
+
+    /** Report to my game that the search in progress has completed
+     *  DEPTH moves, finding MOVE, and the rate at which it is visiting
+     *  positions (approximate, since the helpers' counts are read while
+     *  they run). */
+    private void reportProgress(int depth, int move) {
+        List<Worker> workers = _workers;
+        long nodes = 0;
+        for (Worker worker : workers) {
+            nodes += worker._nodes;
+        }
+        long time = Math.max(1, System.currentTimeMillis() - _start);
+        Board board = workers.get(workers.size() - 1)._board;
+        getGame().reportProgress(getSide(), depth, board.row(move),
+                                 board.col(move), nodes * 1000 / time);
+    }
+
+    /** Return the number of positions visited, by all threads, during
+     *  my last search. */
+    long nodesSearched() {
+        return _lastNodes;
+    }
+
+    /** Return the depth of the deepest search completed during my last
+     *  search. */
+    int depthSearched() {
+        return _lastDepth;
+    }
+
+    /** One thread's share of a search.  Each Worker has its own board and
+     *  bookkeeping, and shares only _table and the time limit with the
+     *  others. */
+    private class Worker implements Runnable {
+
+        /** A Worker that searches from position BOARD.  ID is 0 for the
+         *  main thread, and distinct positive numbers for helpers. */
+        Worker(Board board, int id) {
+            _board = board;
+            _id = id;
+            int squares = board.size() * board.size();
+            _moveLists = new int[Defaults.SEARCH_DEPTH + 2][squares];
+            _moveScores = new int[Defaults.SEARCH_DEPTH + 2][squares];
+            _killers = new int[Defaults.SEARCH_DEPTH + 2][KILLERS];
+            for (int[] killers : _killers) {
+                Arrays.fill(killers, TranspositionTable.NO_MOVE);
+            }
+            _history = new int[2][squares];
+            _choice = TranspositionTable.NO_MOVE;
+            _geometry = board.geometry();
+            _redundant = new boolean[squares];
+            for (int s = 1; _symmetry && s < Geometry.SYMMETRIES; s += 1) {
+                if (board.symmetric(s)) {
+                    for (int n = 0; n < squares; n += 1) {
+                        if (_geometry.image(s, n) > n) {
+                            _redundant[n] = true;
                         }
-                        bestVal = eval;
-                    }
-                    alpha = Math.max(alpha, bestVal);
-                    if (beta <= alpha) {
-                        return bestVal;
                     }
+                }
+            }
+        }
 
+        /** Search from my position by iterative deepening, leaving the
+         *  move found by the deepest completed search in _choice and its
+         *  depth in _completed.  Each search after the first starts with
+         *  a window of ASPIRATION_WINDOW on either side of the value found
+         *  by the one before, widening it (by a factor of ASPIRATION_GROWTH
+         *  each time) on whichever side the value falls outside it. */
+        @Override
+        public void run() {
+            int sense = _board.whoseMove() == Side.RED ? 1 : -1;
+            _timed = false;
+            int value = 0;
+            for (_depth = 1 + (_id & 1); _depth <= _maxDepth; _depth += 1) {
+                _horizon = false;
+                _foundMove = _choice;
+                int window = ASPIRATION_WINDOW;
+                int alpha, beta;
+                if (_completed == 0 || decided(value)) {
+                    alpha = -_winningValue;
+                    beta = _winningValue;
+                } else {
+                    alpha = below(value, window);
+                    beta = -below(-value, window);
                 }
+                while (true) {
+                    value = minMax(_board, 0, true, sense, alpha, beta);
+                    if (_stopped) {
+                        break;
+                    }
+                    window *= ASPIRATION_GROWTH;
+                    if (value <= alpha && alpha > -_winningValue) {
+                        alpha = below(value, window);
+                    } else if (value >= beta && beta < _winningValue) {
+                        beta = -below(-value, window);
+                    } else {
+                        break;
+                    }
+                }
+                if (_stopped) {
+                    break;
+                }
+                _choice = _foundMove;
+                _completed = _depth;
+                _value = sense * value;
+                _exact = !_horizon;
+                if (_id == 0 && _reporting) {
+                    reportProgress(_completed, _choice);
+                }
+                if (!_horizon) {
+                    break;
+                }
+                _timed = true;
             }
-            return bestVal;
-        } else {
-            assert sense == -1;
-            playerToMove = Side.BLUE;
-            assert test.whoseMove() == playerToMove;
-            bestVal = Integer.MAX_VALUE;
-            for (int n = 0; n < test.size() * test.size(); n++) {
-                if (test.isLegal(playerToMove, n)) {
-                    test.addSpot(playerToMove, n);
-                    eval = minMax(test, depth + 1, false, 1, alpha, beta);
-                    test.undo();
-                    if (eval <= bestVal) {
-                        if (saveMove) {
-                            _foundMove = n;
+        }
+
+        /** Return true iff VALUE is that of a won or lost position. */
+        private boolean decided(int value) {
+            return Math.abs(value) > _winningValue - MAX_PLY;
+        }
+
+        /** Return VALUE, found for a position DEPTH moves from the root,
+         *  as stored in _table: the values of won and lost positions are
+         *  stored relative to that position rather than to the root. */
+        private int toTable(int value, int depth) {
+            return !decided(value) ? value : value > 0 ? value + depth
+                : value - depth;
+        }
+
+        /** Return VALUE, as stored in _table, for a position DEPTH moves
+         *  from the root (the inverse of toTable). */
+        private int fromTable(int value, int depth) {
+            return !decided(value) ? value : value > 0 ? value - depth
+                : value + depth;
+        }
+
+        /** Return VALUE - WINDOW, or -_winningValue if that is less. */
+        private int below(int value, int window) {
+            return value > window - _winningValue ? value - window
+                : -_winningValue;
+        }
+
+        /** Fill _moveLists[DEPTH] with the legal moves for PLAYER on
+         *  BOARD, most promising first, and return the number of moves.
+         *  FIRST, if legal, comes first, followed by my killer moves for
+         *  DEPTH, then by moves that explode one of PLAYER's squares
+         *  (ranked by how many of the opponent's squares the explosion
+         *  takes over), and finally by the remaining moves in order of
+         *  their history scores.  Ties are left in order of square
+         *  number. */
+        private int orderMoves(Board board, int depth, Side player,
+                               int first) {
+            int[] moves = _moveLists[depth];
+            int[] scores = _moveScores[depth];
+            int[] killers = _killers[depth];
+            int[] history = _history[player.ordinal() - 1];
+            Geometry geom = board.geometry();
+            Side opponent = player.opposite();
+            int count;
+            count = 0;
+            for (int n = 0; n < board.size() * board.size(); n++) {
+                if (!board.isLegal(player, n)
+                    || depth == 0 && _redundant[n]) {
+                    continue;
+                }
+                int score;
+                if (n == first) {
+                    score = HASH_MOVE_SCORE;
+                } else if (n == killers[0]) {
+                    score = KILLER_SCORE;
+                } else if (n == killers[1]) {
+                    score = KILLER_SCORE - 1;
+                } else {
+                    score = history[n];
+                    if (board.critical(n)) {
+                        int gain = 1;
+                        for (int k = geom.start(n); k < geom.start(n + 1);
+                             k += 1) {
+                            int m = geom.neighbor(k);
+                            if (board.get(m).getSide() == opponent) {
+                                gain += board.critical(m) ? 2 : 1;
+                            }
                         }
-                        bestVal = eval;
-                    }
-                    beta = Math.min(beta, bestVal);
-                    if (beta <= alpha) {
-                        return bestVal;
+                        score += gain << TACTICS_SHIFT;
                     }
+                }
+                int i;
+                for (i = count; i > 0 && scores[i - 1] < score; i -= 1) {
+                    moves[i] = moves[i - 1];
+                    scores[i] = scores[i - 1];
+                }
+                moves[i] = n;
+                scores[i] = score;
+                count += 1;
+            }
+            return count;
+        }
 
+        /** Record that move N by PLAYER caused a cutoff at DEPTH, with
+         *  DRAFT moves left to search. */
+        private void recordCutoff(Side player, int depth, int draft, int n) {
+            int[] killers = _killers[depth];
+            if (killers[0] != n) {
+                killers[1] = killers[0];
+                killers[0] = n;
+            }
+            int[] history = _history[player.ordinal() - 1];
+            history[n] = Math.min(history[n] + draft * draft, MAX_HISTORY);
+        }
+
+        /** Find a move from position BOARD and return its value, recording
+         *  the move found in _foundMove iff SAVEMOVE. The move
+         *  should have maximal value or have value > BETA if SENSE==1,
+         *  and minimal value or value < ALPHA if SENSE==-1. Searches up to
+         *  DEPTH levels.  Searching at level 0 simply returns a static
+         *  estimate of the board value and does not set _foundMove. If the
+         *  game is over on BOARD, does not set _foundMove.
+         *
+         *  Values here are always from Red's point of view, as returned by
+         *  staticEval; the search itself is done by negaMax, which sees
+         *  them from the point of view of the player to move. */
+        private int minMax(Board board, int depth, boolean saveMove,
+                           int sense, int alpha, int beta) {
+            assert board.whoseMove() == (sense == 1 ? Side.RED : Side.BLUE);
+            if (sense == 1) {
+                return negaMax(board, depth, _depth - depth, saveMove,
+                               alpha, beta);
+            } else {
+                return -negaMax(board, depth, _depth - depth, saveMove,
+                                -beta, -alpha);
+            }
+        }
+
+        /** Return the value of position BOARD, DEPTH moves from the root
+         *  of the search, to the player to move, searching DRAFT more
+         *  moves ahead, and recording the best move in _foundMove iff
+         *  SAVEMOVE.  The result is exact if it lies strictly between
+         *  ALPHA and BETA; otherwise it is an upper bound (if <= ALPHA) or
+         *  a lower bound (if >= BETA).
+         *
+         *  A position that Board.decidedWinner shows to be won by one
+         *  side in P moves from the root has the value _winningValue - P
+         *  to the winner, so that quicker wins (and slower losses) are
+         *  preferred.  Below the root, such positions are not searched.
+         *  Nor are those that _tablebase holds, which are valued as if
+         *  decided for the side it says wins.
+         *
+         *  This is a principal variation search: the first move (the
+         *  most promising, by orderMoves) is searched with the window
+         *  ALPHA..BETA, and each of the others first with a null window
+         *  just above the best value so far, to show cheaply that it is
+         *  no better.  Only moves that fail to show this are searched
+         *  again with the full window.  Below the root, moves late in the
+         *  order that are neither killers nor explosions are first
+         *  searched with a draft reduced by one move (late-move reduction)
+         *  and searched again at the full draft only if that shows them
+         *  better than the best so far.
+         *
+         *  When SAVEMOVE, the move recorded is the last one (in order of
+         *  square number) having the best value found, or a winning one.
+         *  Each move is searched with a window just wide enough to tell
+         *  whether it displaces the best so far, so the choice does not
+         *  depend on which bounds the search happened to return for the
+         *  others.  The values found are not exact minimax values, however:
+         *  because of late-move reductions they depend on the order in
+         *  which moves below the root are searched, which varies with the
+         *  killers, the history, and the contents of _table.
+         *  Positions found in _table with a result for exactly the
+         *  remaining draft are not searched again; otherwise the best move
+         *  recorded for the position, if any, is searched first.
+         *
+         *  Returns 0 without recording anything once the time limit for
+         *  the current move has been reached or the search has been
+         *  abandoned, in which case _stopped is set. */
+        private int negaMax(Board board, int depth, int draft,
+                            boolean saveMove, int alpha, int beta) {
+            _nodes += 1;
+            if ((_nodes & CLOCK_INTERVAL) == 0
+                && (_abort || _cancelled
+                    || _timed && System.currentTimeMillis() >= _stopAt)) {
+                _stopped = true;
+            }
+            if (_stopped) {
+                return 0;
+            }
+            Side player = board.whoseMove();
+            int sense = player == Side.RED ? 1 : -1;
+            Side winner = saveMove ? board.getWinner()
+                : board.decidedWinner();
+            int known = saveMove || _tablebase == null ? Tablebase.UNKNOWN
+                : _tablebase.value(board);
+            if (winner != null) {
+                int plies = board.getWinner() != null ? depth : depth + 1;
+                return winner == player ? _winningValue - plies
+                    : plies - _winningValue;
+            } else if (known != Tablebase.UNKNOWN) {
+                return known == Tablebase.WIN ? _winningValue - depth - 1
+                    : depth + 1 - _winningValue;
+            } else if (draft == 0) {
+                _horizon = true;
+                return sense * staticEval(board, _winningValue);
+            }
+            int sym = _symmetry ? board.canonicalSymmetry() : 0;
+            long key = board.symmetricKey(sym);
+            long entry = _table.probe(key);
+            int hashMove =
+                saveMove ? _foundMove : TranspositionTable.move(entry);
+            if (!saveMove && hashMove != TranspositionTable.NO_MOVE) {
+                hashMove = _geometry.image(Geometry.inverse(sym), hashMove);
+            }
+            if (!saveMove && entry != 0
+                && TranspositionTable.depth(entry) == draft) {
+                int score =
+                    fromTable(TranspositionTable.score(entry), depth);
+                int bound = TranspositionTable.bound(entry);
+                if (bound == TranspositionTable.EXACT
+                    || bound == TranspositionTable.LOWER && score >= beta
+                    || bound == TranspositionTable.UPPER && score <= alpha) {
+                    _horizon = true;
+                    return score;
+                }
+            }
+            if (saveMove) {
+                _foundMove = TranspositionTable.NO_MOVE;
+            }
+            int alpha0 = alpha;
+            int bestVal = -Integer.MAX_VALUE;
+            int bestMove = TranspositionTable.NO_MOVE;
+            int[] moves = _moveLists[depth];
+            int[] scores = _moveScores[depth];
+            int count = orderMoves(board, depth, player, hashMove);
+            for (int i = 0; i < count; i += 1) {
+                int n = moves[i];
+                int a = alpha;
+                if (saveMove && bestVal > -Integer.MAX_VALUE) {
+                    a = Math.max(alpha, n > bestMove ? bestVal - 1 : bestVal);
+                }
+                int reduction =
+                    !saveMove && draft >= LMR_MIN_DRAFT && i >= LMR_MIN_MOVES
+                    && scores[i] < 1 << TACTICS_SHIFT ? 1 : 0;
+                board.addSpot(player, n);
+                int eval;
+                if (i == 0) {
+                    eval = -negaMax(board, depth + 1, draft - 1, false,
+                                    -beta, -a);
+                } else {
+                    eval = -negaMax(board, depth + 1, draft - 1 - reduction,
+                                    false, -a - 1, -a);
+                    if (eval > a && reduction > 0) {
+                        eval = -negaMax(board, depth + 1, draft - 1, false,
+                                        -a - 1, -a);
+                    }
+                    if (eval > a && eval < beta) {
+                        eval = -negaMax(board, depth + 1, draft - 1, false,
+                                        -beta, -a);
+                    }
+                }
+                board.undo();
+                if (_stopped) {
+                    return 0;
+                }
+                if (eval > bestVal
+                    || eval == bestVal && (!saveMove || n > bestMove)) {
+                    bestVal = eval;
+                    bestMove = n;
                 }
+                if (!saveMove) {
+                    alpha = Math.max(alpha, bestVal);
+                }
+                if (bestVal >= beta) {
+                    if (!saveMove) {
+                        recordCutoff(player, depth, draft, n);
+                    }
+                    break;
+                }
+            }
+            if (saveMove) {
+                _foundMove = bestMove;
+            }
+            int bound;
+            if (bestVal <= alpha0) {
+                bound = TranspositionTable.UPPER;
+            } else if (bestVal >= beta) {
+                bound = TranspositionTable.LOWER;
+            } else {
+                bound = TranspositionTable.EXACT;
             }
+            if (bestMove != TranspositionTable.NO_MOVE) {
+                bestMove = _geometry.image(sym, bestMove);
+            }
+            _table.store(key, draft, bound, toTable(bestVal, depth),
+                         bestMove);
             return bestVal;
         }
+
+        /** The position searched. */
+        private final Board _board;
+        /** Tables for the size of _board. */
+        private final Geometry _geometry;
+        /** Indexed by square number: true for moves from _board that a
+         *  symmetry of _board carries to higher-numbered squares, which
+         *  are not searched if _symmetry. */
+        private final boolean[] _redundant;
+        /** 0 for the main thread, positive for helpers. */
+        private final int _id;
+        /** Move lists for negaMax, indexed by depth. */
+        private final int[][] _moveLists;
+        /** Ordering scores of the moves in _moveLists. */
+        private final int[][] _moveScores;
+        /** The last KILLERS distinct moves that caused cutoffs, indexed by
+         *  depth, most recent first. */
+        private final int[][] _killers;
+        /** History scores, indexed by the ordinal of the player (less 1)
+         *  and square number: the sum of the squares of the remaining
+         *  depths at which moves to each square caused cutoffs. */
+        private final int[][] _history;
+        /** Used to convey moves discovered by negaMax. */
+        private int _foundMove;
+        /** Move chosen by the deepest completed search. */
+        private int _choice;
+        /** Depth of the deepest completed search, or 0 if none. */
+        private int _completed;
+        /** Value of my position to the player to move, as found by the
+         *  deepest completed search. */
+        private int _value;
+        /** True iff the deepest completed search reached no position at
+         *  its depth limit, so that its result holds at any depth. */
+        private boolean _exact;
+        /** Depth of the search in progress. */
+        private int _depth;
+        /** True once a search is complete, after which the search in
+         *  progress stops at _stopAt. */
+        private boolean _timed;
+        /** True iff the search in progress was cut off. */
+        private boolean _stopped;
+        /** True iff the search in progress reached its depth limit in
+         *  some unfinished position. */
+        private boolean _horizon;
+        /** Number of positions visited by negaMax. */
+        private long _nodes;
     }
 
     /** Return a heuristic estimate of the value of board position B.
      *  Use WINNINGVALUE to indicate a win for Red and -WINNINGVALUE to
-     *  indicate a win for Blue. */
+     *  indicate a win for Blue.  The estimate weighs each side's squares,
+     *  spots, and squares at critical mass against the other's, penalizes
+     *  a side for squares its opponent can take in one move, and credits
+     *  the side to move for the pairs of critical squares it can explode
+     *  first.  All of these are kept current by the Board, so this takes
+     *  constant time. */
     private int staticEval(Board b, int winningValue) {
         int evaluation;
         int redsides = b.numOfSide(Side.RED);
@@ -129,23 +875,154 @@ class AI extends Player {
             return -winningValue;
         }
 
-        evaluation = redsides - bluesides;
+        int tempo = CONTESTED_WEIGHT * b.numOfContested();
+        evaluation = SQUARE_WEIGHT * (redsides - bluesides)
+            + b.numOfSpots(Side.RED) - b.numOfSpots(Side.BLUE)
+            + CRITICAL_WEIGHT * (b.numOfCritical(Side.RED)
+                                 - b.numOfCritical(Side.BLUE))
+            + EXPOSED_WEIGHT * (b.numOfExposed(Side.BLUE)
+                                - b.numOfExposed(Side.RED))
+            + (b.whoseMove() == Side.RED ? tempo : -tempo);
         return evaluation;
     }
 
     /** A random-number generator used for move selection. */
     private Random _random;
 
-    /** Used to convey moves discovered by minMax. */
-    private int _foundMove;
-
     /** The current player. */
     private Side _player;
 
-    /** Depth at which the AI is set to search at. */
-    private int _depth;
+    /** Greatest depth to which I search. */
+    private int _maxDepth;
+
+    /** Time allowed per move, in milliseconds, or 0 for no limit. */
+    private long _timeLimit;
+
+    /** Number of threads to search with. */
+    private int _threads;
+
+    /** True iff I treat symmetric positions as equivalent. */
+    private boolean _symmetry;
+
+    /** Time (as from System.currentTimeMillis) at which the search in
+     *  progress began. */
+    private long _start;
+
+    /** Time (as from System.currentTimeMillis) at which the search in
+     *  progress must stop, once it has completed a search to depth 1. */
+    private volatile long _stopAt;
+
+    /** Set when the main thread finishes, telling helpers to stop, or
+     *  when a search begun by pondering is abandoned. */
+    private volatile boolean _abort;
+
+    /** The command that interrupted my last search, until it is returned
+     *  by getMove, or null if none. */
+    private String _command;
+
+    /** Set to abandon the search begun by getMoveSquare or by
+     *  pondering. */
+    private volatile boolean _cancelled;
+
+    /** True iff the search in progress reports its progress to my
+     *  game. */
+    private volatile boolean _reporting;
+
+    /** The Workers of the search in progress, the main one last, or null
+     *  if none. */
+    private volatile List<Worker> _workers;
+
+    /** True iff I ponder. */
+    private boolean _ponder;
+
+    /** Thread running the search begun by pondering, or null if none. */
+    private Thread _ponderThread;
+
+    /** The position being searched by _ponderThread. */
+    private Board _ponderPosition;
+
+    /** The result of the last search begun by pondering. */
+    private Worker _pondered;
+
+    /** Threads for helper Workers, created on first use. */
+    private ExecutorService _pool;
+
+    /** Number of threads in _pool. */
+    private int _poolSize;
+
+    /** Number of positions visited during my last search. */
+    private long _lastNodes;
+
+    /** Depth of the deepest search completed during my last search. */
+    private int _lastDepth;
+
+    /** Depth of the deepest search completed during the last search I
+     *  made to its end, rather than abandoning it or taking its result
+     *  from _store, or 0 if none. */
+    private int _searchedDepth;
 
     /** Integer denoting that the game is won for a side. */
     private int _winningValue;
 
+    /** Results of previous searches, allocated on first use.  Shared by
+     *  all Workers. */
+    private TranspositionTable _table;
+
+    /** Memory budget for _table, in megabytes. */
+    private int _tableSize;
+
+    /** Where the results of my searches are kept between runs, or null
+     *  if they are not. */
+    private SearchStore _store;
+
+    /** Results of perfect play for boards of the size being searched,
+     *  or null if there are none. */
+    private Tablebase _tablebase;
+
+    /** Weights of the terms of staticEval, relative to that of a
+     *  spot. */
+    private static final int
+        SQUARE_WEIGHT = 4,
+        CRITICAL_WEIGHT = 2,
+        EXPOSED_WEIGHT = 6,
+        CONTESTED_WEIGHT = 6;
+
+    /** Number of killer moves kept for each depth. */
+    private static final int KILLERS = 2;
+
+    /** Move-ordering scores.  History scores lie below MAX_HISTORY, and
+     *  the tactical value of exploding a square is added in units of
+     *  1 << TACTICS_SHIFT. */
+    private static final int
+        HASH_MOVE_SCORE = Integer.MAX_VALUE,
+        KILLER_SCORE = HASH_MOVE_SCORE - 1,
+        TACTICS_SHIFT = 20,
+        MAX_HISTORY = (1 << TACTICS_SHIFT) - 1;
+
+    /** Late-move reductions apply to moves searched with at least
+     *  LMR_MIN_DRAFT moves to go that come after the first LMR_MIN_MOVES
+     *  in order. */
+    private static final int
+        LMR_MIN_DRAFT = 3,
+        LMR_MIN_MOVES = 3;
+
+    /** Half-width of the first aspiration window of each search after
+     *  the first, and the factor by which it widens on each failure. */
+    private static final int
+        ASPIRATION_WINDOW = 16,
+        ASPIRATION_GROWTH = 4;
+
+    /** Greater than the number of moves from the root of any position
+     *  searched.  Values within MAX_PLY of _winningValue denote won or
+     *  lost positions. */
+    private static final int MAX_PLY = Defaults.SEARCH_DEPTH + 2;
+
+    /** negaMax consults the clock whenever the number of nodes visited
+     *  has all these bits clear. */
+    private static final int CLOCK_INTERVAL = (1 << 10) - 1;
+
+    /** Interval, in milliseconds, at which awaitSearch checks for commands
+     *  while a search runs. */
+    private static final long POLL_INTERVAL = 50;
+
 }
@@ -0,0 +1,61 @@
+package jump61;
+
+import java.io.PrintStream;
+import java.util.Random;
+
+/** A fixed benchmark for the AI's search: searches a standard set of
+ *  positions to a given depth with a single thread and no time limit,
+ *  reporting the number of positions visited and the time taken.  The
+ *  positions, and hence the node counts, are the same on every run, so
+ *  that the effects of changes to the search may be compared.
+ *  @author Jake Clayton
+ */
+class Benchmark {
+
+    /** Board sizes of the standard positions. */
+    static final int[] SIZES = { 4, 6, 8, 10 };
+
+    /** Search each standard position to PLIES moves, reporting the results
+     *  on OUT.  Requires 0 < PLIES <= Defaults.SEARCH_DEPTH. */
+    static void run(int plies, PrintStream out) {
+        Game game = new Game((p) -> null, (b) -> { }, new TextReporter(),
+                             false);
+        long totalNodes, totalTime;
+        totalNodes = totalTime = 0;
+        for (int size : SIZES) {
+            Board board = position(size);
+            AI ai = new AI(game, board.whoseMove(), size);
+            ai.setTimeLimit(0);
+            ai.setMaxDepth(plies);
+            ai.setThreads(1);
+            long start = System.currentTimeMillis();
+            int move = ai.searchForMove(board);
+            long time = System.currentTimeMillis() - start;
+            out.printf("%2dx%-2d  move %s  %12d nodes  %8d ms%n",
+                       size, size, board.moveString(move),
+                       ai.nodesSearched(), time);
+            totalNodes += ai.nodesSearched();
+            totalTime += time;
+        }
+        out.printf("total  depth %-6d %12d nodes  %8d ms  (%d nodes/s)%n",
+                   plies, totalNodes, totalTime,
+                   totalNodes * 1000 / Math.max(1, totalTime));
+    }
+
+    /** Return the standard position for a SIZE x SIZE board: the result
+     *  of 2 * SIZE random moves (chosen the same way each time) from the
+     *  empty board. */
+    static Board position(int size) {
+        Board board = new Board(size);
+        Random random = new Random(size);
+        for (int i = 0; i < 2 * size && board.getWinner() == null; i += 1) {
+            int n;
+            do {
+                n = random.nextInt(size * size);
+            } while (!board.isLegal(board.whoseMove(), n));
+            board.addSpot(board.whoseMove(), n);
+        }
+        return board;
+    }
+
+}
@@ -2,7 +2,7 @@
 package jump61;
 
 
-import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Formatter;
 
 import java.util.function.Consumer;
@@ -21,15 +21,14 @@ class Board {
 
         /** An N x N board in initial configuration. */
     Board(int N) {
-        _history = new ArrayDeque<>();
+        clearHistory();
         _numMoves = 0;
-        _workQueue = new ArrayDeque<>();
-        _squares = new Square[N][N];
-        for (int r = 0; r < N; r++) {
-            for (int c = 0; c < N; c++) {
-                _squares[r][c] = Square.square(Side.WHITE, 1);
-            }
-        }
+        _size = N;
+        _geometry = Geometry.forSize(N);
+        allocateWorkQueue();
+        _cells = new byte[N * N];
+        Arrays.fill(_cells, WHITE_CELL);
+        recount();
         _currentPlayer = whoseMove();
         _readonlyBoard = new ConstantBoard(this);
         _notifier = NOP;
@@ -41,11 +40,13 @@ class Board {
 
     Board(Board board0) {
         _currentPlayer = board0.whoseMove();
-        _history = new ArrayDeque<>();
-        _workQueue = new ArrayDeque<>();
+        clearHistory();
         _notifier = NOP;
         _numMoves = board0.numMoves() + 2;
-        _squares = new Square[board0.size()][board0.size()];
+        _size = board0.size();
+        _geometry = Geometry.forSize(_size);
+        allocateWorkQueue();
+        _cells = new byte[_size * _size];
         internalCopy(board0);
     }
 
@@ -62,40 +63,158 @@ class Board {
     /** (Re)initialize me to a cleared board with N squares on a side. Clears
      *  the undo history and sets the number of moves to 0. */
     void clear(int N) {
-        _squares = new Square[N][N];
-        for (int r = 0; r < N; r++) {
-            for (int c = 0; c < N; c++) {
-                _squares[r][c] = Square.square(Side.WHITE, 1);
-            }
-        }
-        _workQueue = new ArrayDeque<>();
+        _size = N;
+        _geometry = Geometry.forSize(N);
+        _cells = new byte[N * N];
+        Arrays.fill(_cells, WHITE_CELL);
+        recount();
+        allocateWorkQueue();
         Side s = ((numPieces() + size()) & 1) == 0 ? Side.RED : Side.BLUE;
         _currentPlayer = s;
         _numMoves = 0;
-        _history = new ArrayDeque<>();
+        clearHistory();
+    }
+
+    /** Discard my undo history. */
+    private void clearHistory() {
+        if (_journal == null) {
+            _journal = new int[INITIAL_JOURNAL_SIZE];
+            _undoMarks = new int[INITIAL_UNDO_DEPTH];
+        }
+        _journalSize = 0;
+        _undoDepth = 0;
+    }
+
+    /** Enter playout mode iff PLAYOUT (initially false), discarding my
+     *  undo history.  In playout mode, I record no undo history and keep
+     *  current only my contents, the side to move, and the square and
+     *  spot counts (and hence the winner), which makes moves much
+     *  cheaper.  Until I leave playout mode, undo, hashKey and the other
+     *  methods that report hash keys or symmetries, equals, hashCode, the
+     *  mask methods, and the numOfCritical, numOfContested, numOfExposed,
+     *  and numOfBadSquares methods must not be used.  For boards that only
+     *  play out games (see Rollout). */
+    void setPlayoutMode(boolean playout) {
+        clearHistory();
+        _playout = playout;
+        recount();
+    }
+
+    /** Allocate an empty work queue large enough for my size. */
+    private void allocateWorkQueue() {
+        _workQueue = new int[_size * _size];
+        _queued = new long[(_size * _size + Long.SIZE - 1) / Long.SIZE];
+        _workSize = 0;
     }
 
     /** Copy the contents of BOARD into me. */
     void copy(Board board) {
-        for (int r = 0; r < size(); r++) {
-            for (int c = 0; c < size(); c++) {
-                _squares[r][c] = board.get(r + 1, c + 1);
+        if (board._cells != null) {
+            System.arraycopy(board._cells, 0, _cells, 0, _cells.length);
+        } else {
+            for (int n = 0; n < _cells.length; n++) {
+                Square sq = board.get(n);
+                _cells[n] = cell(sq.getSide(), sq.getSpots());
+            }
+        }
+        recount();
+    }
+
+    /** Recompute the per-side square and spot counts, and the other
+     *  features kept current by put, from _cells. */
+    private void recount() {
+        Arrays.fill(_sideCounts, 0);
+        Arrays.fill(_spotCounts, 0);
+        for (int n = 0; n < _cells.length; n += 1) {
+            int cell = _cells[n];
+            _sideCounts[cell >> SIDE_SHIFT] += 1;
+            _spotCounts[cell >> SIDE_SHIFT] += cell & SPOTS_MASK;
+        }
+        if (!_playout) {
+            recountFeatures();
+        }
+    }
+
+    /** Recompute my hash key, bit masks, and evaluation features from
+     *  _cells. */
+    private void recountFeatures() {
+        Arrays.fill(_criticalCounts, 0);
+        Arrays.fill(_exposed, 0);
+        _contested = 0;
+        Arrays.fill(_owned, 0);
+        Arrays.fill(_planes, 0);
+        _masked = _geometry.hasMasks();
+        _key = _geometry.sizeKey();
+        Arrays.fill(_symmetricKeys, _key);
+        for (int n = 0; n < _cells.length; n += 1) {
+            int cell = _cells[n];
+            _key ^= _geometry.zobrist(n, cell);
+            for (int s = 1; s < Geometry.SYMMETRIES; s += 1) {
+                _symmetricKeys[s] ^=
+                    _geometry.zobrist(_geometry.image(s, n), cell);
+            }
+            _criticalCounts[criticalSide(n, cell)] += 1;
+            for (int k = _geometry.start(n); k < _geometry.start(n + 1);
+                 k += 1) {
+                int m = _geometry.neighbor(k);
+                if (m > n) {
+                    countPair(n, cell, m, _cells[m], 1);
+                }
+            }
+            if (_masked) {
+                _owned[cell >> SIDE_SHIFT] |= 1L << n;
+                for (int p = 0; p < SIDE_SHIFT; p += 1) {
+                    _planes[p] |= (long) (cell >> p & 1) << n;
+                }
             }
         }
     }
 
-    /** Copies the array representation of the board.
-     * @return a copied 2d array.
-     * @param arr is the 2d array board containing squares. */
-    Square[][] copyData(Square[][] arr) {
-        int len = arr.length;
-        Square[][] result = new Square[len][len];
-        for (int r = 0; r < len; r++) {
-            for (int c = 0; c < len; c++) {
-                result[r][c] = arr[r][c];
+    /** Return the ordinal of the Side holding square #N if, when it
+     *  contains the packed cell CELL, it is at critical mass, and
+     *  otherwise the ordinal of WHITE. */
+    private int criticalSide(int n, int cell) {
+        if ((cell & SPOTS_MASK) == _geometry.capacity(n)) {
+            return cell >> SIDE_SHIFT;
+        }
+        return WHITE_ORDINAL;
+    }
+
+    /** Add DELTA times the contribution of the adjacent squares #N and #M,
+     *  containing packed cells CELLN and CELLM, to _contested and
+     *  _exposed. */
+    private void countPair(int n, int cellN, int m, int cellM, int delta) {
+        int ownerN = cellN >> SIDE_SHIFT, ownerM = cellM >> SIDE_SHIFT;
+        int critN = criticalSide(n, cellN), critM = criticalSide(m, cellM);
+        if (critN != WHITE_ORDINAL && ownerM != WHITE_ORDINAL
+            && ownerM != critN) {
+            _exposed[ownerM] += delta;
+            if (critM != WHITE_ORDINAL) {
+                _contested += delta;
             }
         }
-        return result;
+        if (critM != WHITE_ORDINAL && ownerN != WHITE_ORDINAL
+            && ownerN != critM) {
+            _exposed[ownerN] += delta;
+        }
+    }
+
+    /** Set my contents and the side to move to those of BOARD, which must
+     *  have my size, and discard my undo history.  Unlike the Board(Board)
+     *  constructor, allocates nothing. */
+    void setPosition(Board board) {
+        internalCopy(board);
+        _currentPlayer = board.whoseMove();
+        _numMoves = board.numMoves() + 2;
+        clearHistory();
+    }
+
+    /** Make PLAYER the side to move, whatever the number of spots, and
+     *  discard my undo history. */
+    void setWhoseMove(Side player) {
+        _currentPlayer = player;
+        _numMoves = Math.max(_numMoves, 1);
+        clearHistory();
     }
 
     /** Copy the contents of BOARD into me, without modifying my undo
@@ -105,9 +224,14 @@ class Board {
         copy(board);
     }
 
+    /** Return the shared neighbor and capacity tables for my size. */
+    Geometry geometry() {
+        return _geometry;
+    }
+
     /** Return the number of rows and of columns of THIS. */
     int size() {
-        return _squares.length;
+        return _size;
     }
 
     /** Returns the contents of the square at row R, column C
@@ -120,18 +244,13 @@ class Board {
      *  squares in row 1 number 0 - size()-1, in row 2 numbered
      *  size() - 2*size() - 1, etc. */
     Square get(int n) {
-        return _squares[n / size()][n % size()];
+        int cell = _cells[n];
+        return Square.square(SIDES[cell >> SIDE_SHIFT], cell & SPOTS_MASK);
     }
 
     /** Returns the total number of spots on the board. */
     int numPieces() {
-        int sumSpots = 0;
-        for (int l = 0; l < size(); l++) {
-            for (int w = 0; w < size(); w++) {
-                sumSpots += get(w + 1, l + 1).getSpots();
-            }
-        }
-        return sumSpots;
+        return _spotCounts[0] + _spotCounts[1] + _spotCounts[2];
     }
 
     /** Returns the Side of the player who would be next to move.  If the
@@ -195,10 +314,7 @@ class Board {
         if (!exists(n) || getWinner() != null) {
             return false;
         }
-        if (get(n).getSide() == player.opposite()) {
-            return false;
-        }
-        return true;
+        return _cells[n] >> SIDE_SHIFT != player.opposite().ordinal();
     }
 
     /** Returns true iff PLAYER is allowed to move at this point. */
@@ -209,81 +325,189 @@ class Board {
     /** Returns the winner of the current position, if the game is over,
      *  and otherwise null. */
     final Side getWinner() {
-        Side initial = get(0).getSide();
-        Side check;
-        if (initial == Side.WHITE) {
-            return null;
-        }
-        for (int i = 1; i < size() * size(); i++) {
-            check = get(i).getSide();
-            if (check == Side.WHITE || check != initial) {
-                return null;
-            }
+        int N = size();
+        if (numOfSide(Side.RED) == N * N) {
+            return Side.RED;
+        } else if (numOfSide(Side.BLUE) == N * N) {
+            return Side.BLUE;
         }
-        return initial;
+        return null;
     }
 
     /** Return the number of squares of given SIDE. */
     int numOfSide(Side side) {
-        int sumSides = 0;
-        for (int l = 1; l <= size(); l++) {
-            for (int w = 1; w <= size(); w++) {
-                if (get(l, w).getSide().equals(side)) {
-                    sumSides += 1;
-                }
-            }
-        }
-        return sumSides;
+        return _sideCounts[side.ordinal()];
     }
 
     /** Returns the number of spots in the board of squares of given SIDE. */
     int numOfSpots(Side side) {
-        int sumSpots = 0;
-        for (int l = 0; l < size(); l++) {
-            for (int w = 0; w < size(); w++) {
-                Square cur = _squares[l][w];
-                if (cur.getSide().equals(side)) {
-                    sumSpots += cur.getSpots();
-                }
-            }
+        return _spotCounts[side.ordinal()];
+    }
+
+    /** Return the mask of squares held by SIDE (or unowned, for WHITE),
+     *  in which bit #N stands for square #N.  Requires
+     *  geometry().hasMasks(). */
+    long ownedMask(Side side) {
+        assert _masked;
+        return _owned[side.ordinal()];
+    }
+
+    /** Return the mask of squares holding exactly SPOTS spots.  Requires
+     *  geometry().hasMasks(). */
+    long spotsMask(int spots) {
+        assert _masked;
+        long mask = _geometry.fullMask();
+        for (int p = 0; p < SIDE_SHIFT; p += 1) {
+            mask &= (spots >> p & 1) != 0 ? _planes[p] : ~_planes[p];
         }
-        return sumSpots;
+        return mask;
+    }
+
+    /** Return the mask of squares of SIDE that are full, so that one more
+     *  spot would make them explode.  Requires geometry().hasMasks(). */
+    long criticalMask(Side side) {
+        long critical = 0;
+        for (int cap = 1; cap <= Geometry.MAX_CAPACITY; cap += 1) {
+            critical |= _geometry.capacityMask(cap) & spotsMask(cap);
+        }
+        return critical & ownedMask(side);
+    }
+
+    /** Return the mask of squares on which PLAYER may currently play.
+     *  Requires geometry().hasMasks(). */
+    long legalMask(Side player) {
+        if (getWinner() != null) {
+            return 0;
+        }
+        return _geometry.fullMask() & ~ownedMask(player.opposite());
+    }
+
+    /** Return the number of squares of SIDE at critical mass (see
+     *  critical). */
+    int numOfCritical(Side side) {
+        return _criticalCounts[side.ordinal()];
+    }
+
+    /** Return the number of pairs of adjacent squares at critical mass
+     *  that belong to opposing sides.  Whichever side moves next can
+     *  explode into the other's square of each such pair. */
+    int numOfContested() {
+        return _contested;
+    }
+
+    /** Return the number of pairs of adjacent squares in which one
+     *  belongs to SIDE and the other is an opposing square at critical
+     *  mass, so that the square of SIDE can be taken in one move. */
+    int numOfExposed(Side side) {
+        return _exposed[side.ordinal()];
     }
 
-    /** Returns (weighted) number of bad squares for a player.
+    /** Returns (weighted) number of bad squares for a player: three for
+     *  each contested pair (see numOfContested) and one for each pair
+     *  in which a square of SIDE is exposed (see numOfExposed).  There
+     *  are no bad squares for WHITE.
      * @param side is the color being analyzed. */
     int numOfBadSquares(Side side) {
-        int badSquares = 0;
-        for (int l = 1; l <= size(); l++) {
-            for (int w = 1; w <= size(); w++) {
-                Square cur = get(l, w);
-                if (cur.getSide().equals(side)) {
-                    int spots = cur.getSpots();
-                    if (spots == neighbors(l, w)) {
-                        int[] check = allNeighbors(l, w);
-                        for (int i = 0; i < check.length; i++) {
-                            Square temp = get(check[i]);
-                            if (temp.getSide() == side.opposite()) {
-                                if (temp.getSpots() == neighbors(check[i])) {
-                                    badSquares += 3;
-                                }
-                            }
-                        }
+        if (side == Side.WHITE) {
+            return 0;
+        }
+        return 3 * numOfContested() + numOfExposed(side);
+    }
+
+    /** Return the side that has won the game or is sure to win it with
+     *  its next move, or null if neither is known.  The latter is the
+     *  side to move when one of its critical squares lies in a group of
+     *  adjacent critical squares that, together with their neighbors,
+     *  covers the whole board: a spot added there explodes the whole
+     *  group and takes every square.  A side holding no squares has not
+     *  lost, since it may still play on unowned ones.
+     *
+     *  This is only checked when there are enough critical squares (as
+     *  kept by numOfCritical) for such a group to exist, so that it
+     *  usually takes constant time.  Not for use in playout mode. */
+    Side decidedWinner() {
+        Side winner = getWinner();
+        if (winner != null) {
+            return winner;
+        }
+        Side player = whoseMove();
+        int critical = numOfCritical(Side.RED) + numOfCritical(Side.BLUE);
+        if (numOfCritical(player) == 0
+            || critical * (1 + Geometry.MAX_CAPACITY) < _cells.length) {
+            return null;
+        }
+        return _masked ? sweepsMasked(player) : sweeps(player);
+    }
+
+    /** Return PLAYER iff some critical square of PLAYER lies in a group
+     *  of adjacent critical squares that, with their neighbors, covers
+     *  the board (see decidedWinner), and otherwise null.  Requires
+     *  _masked. */
+    private Side sweepsMasked(Side player) {
+        long full = _geometry.fullMask();
+        long critical = criticalMask(Side.RED) | criticalMask(Side.BLUE);
+        long seeds = criticalMask(player);
+        while (seeds != 0) {
+            long group = seeds & -seeds, grown;
+            do {
+                grown = group;
+                group |= _geometry.adjacentMask(group) & critical;
+            } while (group != grown);
+            if ((group | _geometry.adjacentMask(group)) == full) {
+                return player;
+            }
+            seeds &= ~group;
+        }
+        return null;
+    }
+
+    /** As for sweepsMasked, for PLAYER, on boards of any size.  Uses (and
+     *  leaves empty) the work queue. */
+    private Side sweeps(Side player) {
+        for (int seed = 0; seed < _cells.length; seed += 1) {
+            if (_cells[seed] >> SIDE_SHIFT != player.ordinal()
+                || !critical(seed)) {
+                continue;
+            }
+            mark(seed);
+            for (int i = 0; i < _workSize; i += 1) {
+                int n = _workQueue[i];
+                int end = _geometry.start(n + 1);
+                for (int k = _geometry.start(n); k < end; k += 1) {
+                    int m = _geometry.neighbor(k);
+                    if (critical(m) && !marked(m)) {
+                        mark(m);
                     }
-                } else if (cur.getSide().equals(side.opposite())) {
-                    if (cur.getSpots() == neighbors(l, w)) {
-                        int[] check2 = allNeighbors(l, w);
-                        for (int i = 0; i < check2.length; i++) {
-                            Square temp = get(check2[i]);
-                            if (temp.getSide() == side) {
-                                badSquares += 1;
-                            }
-                        }
+                }
+            }
+            boolean covered = true;
+            for (int n = 0; covered && n < _cells.length; n += 1) {
+                if (!marked(n)) {
+                    covered = false;
+                    int end = _geometry.start(n + 1);
+                    for (int k = _geometry.start(n); k < end; k += 1) {
+                        covered |= marked(_geometry.neighbor(k));
                     }
                 }
             }
+            clearWorkQueue();
+            if (covered) {
+                return player;
+            }
         }
-        return badSquares;
+        return null;
+    }
+
+    /** Push square #N on the work queue without changing it. */
+    private void mark(int n) {
+        _queued[n >>> LOG_WORD] |= 1L << n;
+        _workQueue[_workSize] = n;
+        _workSize += 1;
+    }
+
+    /** Return true iff square #N is on the work queue. */
+    private boolean marked(int n) {
+        return (_queued[n >>> LOG_WORD] & 1L << n) != 0;
     }
 
     /** Add a spot from PLAYER at row R, column C.  Assumes
@@ -296,36 +520,43 @@ class Board {
     void addSpot(Side player, int n) {
         assert isLegal(player, n);
         announce();
-        if (_history != null) {
-            _history.push(copyData(_squares));
+        if (!_playout) {
+            if (_undoDepth == _undoMarks.length) {
+                _undoMarks = Arrays.copyOf(_undoMarks, 2 * _undoDepth);
+            }
+            _undoMarks[_undoDepth] =
+                _journalSize << MARK_SHIFT | _currentPlayer.ordinal();
+            _undoDepth += 1;
         }
         _currentPlayer = _currentPlayer.opposite();
         _numMoves += 1;
         int num;
-        int spots = get(n).getSpots() + 1;
+        int spots = (_cells[n] & SPOTS_MASK) + 1;
         internalSet(n, spots, player);
-        if (overfull(spots, row(n), col(n))) {
-            internalSet(n, spots - neighbors(n), player);
+        if (spots > _geometry.capacity(n)) {
+            internalSet(n, spots - _geometry.capacity(n), player);
             addToQueue(n, player);
         }
         if (getWinner() != null) {
             announce();
+            clearWorkQueue();
             return;
         }
-        while (!_workQueue.isEmpty()) {
-            num = _workQueue.pop();
-            spots = get(num).getSpots();
-            if (overfull(spots, row(num), col(num))) {
-                internalSet(num, spots - neighbors(num), player);
+        while (_workSize > 0) {
+            _workSize -= 1;
+            num = _workQueue[_workSize];
+            _queued[num >>> LOG_WORD] &= ~(1L << num);
+            spots = _cells[num] & SPOTS_MASK;
+            if (spots > _geometry.capacity(num)) {
+                internalSet(num, spots - _geometry.capacity(num), player);
                 addToQueue(num, player);
             }
             if (getWinner() != null) {
                 announce();
                 break;
-            } else if (_workQueue.isEmpty()) {
-                break;
             }
         }
+        clearWorkQueue();
     }
 
     /** Add neighbors to the workQueue to be processed
@@ -333,24 +564,29 @@ class Board {
      * @param n is the Square number.
      * @param player is the current side. */
     void addToQueue(int n, Side player) {
-        int size = size();
-        int c = col(n) - 1;
-        int r = row(n) - 1;
-        if (c < (size - 1) && !_workQueue.contains(n + 1)) {
-            internalSet(n + 1, get(n + 1).getSpots() + 1, player);
-            _workQueue.push(n + 1);
-        }
-        if (r < (size - 1) && !_workQueue.contains(n + size)) {
-            internalSet(n + size, get(n + size).getSpots() + 1, player);
-            _workQueue.push(n + size);
+        int end = _geometry.start(n + 1);
+        for (int k = _geometry.start(n); k < end; k += 1) {
+            enqueue(_geometry.neighbor(k), player);
         }
-        if (c > 0 && !_workQueue.contains(n - 1))  {
-            internalSet(n - 1, get(n - 1).getSpots() + 1, player);
-            _workQueue.push(n - 1);
+    }
+
+    /** Unless square #N is already waiting in the work queue, add a spot
+     *  from PLAYER to it and push it on the queue. */
+    private void enqueue(int n, Side player) {
+        long bit = 1L << n;
+        if ((_queued[n >>> LOG_WORD] & bit) == 0) {
+            internalSet(n, (_cells[n] & SPOTS_MASK) + 1, player);
+            _queued[n >>> LOG_WORD] |= bit;
+            _workQueue[_workSize] = n;
+            _workSize += 1;
         }
-        if (r > 0 && !_workQueue.contains(n - size)) {
-            internalSet(n - size, get(n - size).getSpots() + 1, player);
-            _workQueue.push(n - size);
+    }
+
+    /** Empty the work queue. */
+    private void clearWorkQueue() {
+        while (_workSize > 0) {
+            _workSize -= 1;
+            _queued[_workQueue[_workSize] >>> LOG_WORD] = 0;
         }
     }
 
@@ -360,7 +596,7 @@ class Board {
      * @param c is the column #.
      * @return whether the number of spots makes the square overfull. */
     boolean overfull(int spots, int r, int c) {
-        return spots > neighbors(r, c);
+        return spots > neighbors(sqNum(r, c));
     }
 
     /** Set the square at row R, column C to NUM spots (0 <= NUM), and give
@@ -379,23 +615,96 @@ class Board {
     /** Set the square #N to NUM spots (0 <= NUM), and give it color PLAYER
      *  if NUM > 0 (otherwise, white). Does not announce changes. */
     private void internalSet(int n, int num, Side player) {
-        if (num > 0) {
-            _squares[row(n) - 1][col(n) - 1] = Square.square(player, num);
-        } else {
-            _squares[row(n) - 1][col(n) - 1] = Square.square(Side.WHITE, num);
+        if (_undoDepth > 0) {
+            if (_journalSize == _journal.length) {
+                _journal = Arrays.copyOf(_journal, 2 * _journalSize);
+            }
+            _journal[_journalSize] = n << JOURNAL_SHIFT | _cells[n];
+            _journalSize += 1;
         }
+        put(n, cell(player, num));
         announce();
     }
 
+    /** Store packed CELL into square #N, keeping the side and spot
+     *  counts and (unless in playout mode) the other features computed by
+     *  recount current.  Does not record history or announce. */
+    private void put(int n, int cell) {
+        int old = _cells[n];
+        _cells[n] = (byte) cell;
+        _sideCounts[old >> SIDE_SHIFT] -= 1;
+        _spotCounts[old >> SIDE_SHIFT] -= old & SPOTS_MASK;
+        _sideCounts[cell >> SIDE_SHIFT] += 1;
+        _spotCounts[cell >> SIDE_SHIFT] += cell & SPOTS_MASK;
+        if (_playout) {
+            return;
+        }
+        int oldOwner = old >> SIDE_SHIFT, newOwner = cell >> SIDE_SHIFT;
+        int oldCrit = criticalSide(n, old), newCrit = criticalSide(n, cell);
+        if (oldCrit != newCrit || oldOwner != newOwner) {
+            _criticalCounts[oldCrit] -= 1;
+            _criticalCounts[newCrit] += 1;
+            int end = _geometry.start(n + 1);
+            for (int k = _geometry.start(n); k < end; k += 1) {
+                int m = _geometry.neighbor(k);
+                int ownerM = _cells[m] >> SIDE_SHIFT;
+                if (ownerM == WHITE_ORDINAL) {
+                    continue;
+                }
+                int critM = criticalSide(m, _cells[m]);
+                if (oldCrit != WHITE_ORDINAL && oldCrit != ownerM) {
+                    _exposed[ownerM] -= 1;
+                    if (critM != WHITE_ORDINAL) {
+                        _contested -= 1;
+                    }
+                }
+                if (newCrit != WHITE_ORDINAL && newCrit != ownerM) {
+                    _exposed[ownerM] += 1;
+                    if (critM != WHITE_ORDINAL) {
+                        _contested += 1;
+                    }
+                }
+                if (critM != WHITE_ORDINAL) {
+                    if (oldOwner != WHITE_ORDINAL && oldOwner != critM) {
+                        _exposed[oldOwner] -= 1;
+                    }
+                    if (newOwner != WHITE_ORDINAL && newOwner != critM) {
+                        _exposed[newOwner] += 1;
+                    }
+                }
+            }
+        }
+        _key ^= _geometry.zobrist(n, old) ^ _geometry.zobrist(n, cell);
+        for (int s = 1; s < Geometry.SYMMETRIES; s += 1) {
+            int m = _geometry.image(s, n);
+            _symmetricKeys[s] ^=
+                _geometry.zobrist(m, old) ^ _geometry.zobrist(m, cell);
+        }
+        if (_masked) {
+            long bit = 1L << n;
+            _owned[old >> SIDE_SHIFT] &= ~bit;
+            _owned[cell >> SIDE_SHIFT] |= bit;
+            for (int p = 0; p < SIDE_SHIFT; p += 1) {
+                _planes[p] = _planes[p] & ~bit | (long) (cell >> p & 1) << n;
+            }
+        }
+    }
+
     /** Undo the effects of one move (that is, one addSpot command).  One
      *  can only undo back to the last point at which the undo history
      *  was cleared, or the construction of this Board. */
     void undo() {
         assert _numMoves > 0;
-        Square[][] sub = _history.pop();
-        _currentPlayer = _currentPlayer.opposite();
-        _squares = copyData(sub);
-        _workQueue.clear();
+        _undoDepth -= 1;
+        int mark = _undoMarks[_undoDepth];
+        int start = mark >>> MARK_SHIFT;
+        while (_journalSize > start) {
+            _journalSize -= 1;
+            int entry = _journal[_journalSize];
+            put(entry >>> JOURNAL_SHIFT, entry & ((1 << JOURNAL_SHIFT) - 1));
+        }
+        _currentPlayer = SIDES[mark & ((1 << MARK_SHIFT) - 1)];
+        clearWorkQueue();
         announce();
         _numMoves--;
     }
@@ -409,7 +718,7 @@ class Board {
     /** Add DELTASPOTS spots of color PLAYER to square #N,
      *  updating counts of numbers of squares of each color. */
     private void simpleAdd(Side player, int n, int deltaSpots) {
-        internalSet(n, deltaSpots + get(n).getSpots(), player);
+        internalSet(n, deltaSpots + (_cells[n] & SPOTS_MASK), player);
     }
 
     /** Returns my dumped representation. */
@@ -418,16 +727,16 @@ class Board {
         Formatter out = new Formatter();
         out.format("===");
         out.format("\n");
-        Square cur;
+        int cell;
         int spots;
         Side side;
         for (int l = 0; l < size(); l++) {
             out.format("    ");
             for (int w = 0; w < size(); w++) {
-                cur = _squares[l][w];
+                cell = _cells[l * size() + w];
                 String toOutput = "";
-                spots = cur.getSpots();
-                side = cur.getSide();
+                spots = cell & SPOTS_MASK;
+                side = SIDES[cell >> SIDE_SHIFT];
                 toOutput += spots;
                 if (side == Side.RED) {
                     toOutput += "r ";
@@ -462,52 +771,23 @@ class Board {
 
     /** Returns the number of neighbors of the square at row R, column C. */
     int neighbors(int r, int c) {
-        int size = size();
-        int n;
-        n = 0;
-        if (r > 1) {
-            n += 1;
-        }
-        if (c > 1) {
-            n += 1;
-        }
-        if (r < size) {
-            n += 1;
-        }
-        if (c < size) {
-            n += 1;
-        }
-        return n;
+        return neighbors(sqNum(r, c));
     }
 
     /** Returns the number of neighbors of square #N. */
     int neighbors(int n) {
-        return neighbors(row(n), col(n));
+        return _geometry.capacity(n);
+    }
+
+    /** Return true iff square #N holds as many spots as it has
+     *  neighbors, so that one more spot would make it explode. */
+    boolean critical(int n) {
+        return (_cells[n] & SPOTS_MASK) == _geometry.capacity(n);
     }
 
     /** Returns all the neighbors of a square #N. */
     int[] allNeighbors(int n) {
-        int size = size();
-        int c = col(n) - 1;
-        int r = row(n) - 1;
-        int i = 0;
-        int[] neighbors = new int[neighbors(n)];
-        if (c < size - 1) {
-            neighbors[i] = n + 1;
-            i++;
-        }
-        if (r < size - 1) {
-            neighbors[i] = n + size;
-            i++;
-        }
-        if (c > 0) {
-            neighbors[i] = n - 1;
-            i++;
-        }
-        if (r > 0) {
-            neighbors[i] = n - size;
-        }
-        return neighbors;
+        return _geometry.neighbors(n);
     }
 
     /** Return all neighbors of a square.
@@ -517,20 +797,80 @@ class Board {
         return allNeighbors(sqNum(r, c));
     }
 
+    /** Return a 64-bit Zobrist hash of my contents and of the side to
+     *  move.  Equal positions have equal keys, and the keys of unequal
+     *  positions differ with very high probability.  Keys are the same in
+     *  every run of the program. */
+    long hashKey() {
+        return whoseMove() == Side.BLUE ? _key ^ BLUE_TO_MOVE : _key;
+    }
+
+    /** Return the hash key (as for hashKey) of the image of my position
+     *  under symmetry #S (see Geometry). */
+    long symmetricKey(int s) {
+        long key = s == 0 ? _key : _symmetricKeys[s];
+        return whoseMove() == Side.BLUE ? key ^ BLUE_TO_MOVE : key;
+    }
+
+    /** Return the number of the symmetry that carries my position to its
+     *  canonical form: the one of its images under the symmetries with
+     *  the least hash key (the first such, if several have the same
+     *  key).  Positions that are images of each other have the same
+     *  canonical form. */
+    int canonicalSymmetry() {
+        int best;
+        best = 0;
+        for (int s = 1; s < Geometry.SYMMETRIES; s += 1) {
+            if (symmetricKey(s) < symmetricKey(best)) {
+                best = s;
+            }
+        }
+        return best;
+    }
+
+    /** Return the hash key of the canonical form of my position (see
+     *  canonicalSymmetry). */
+    long canonicalKey() {
+        return symmetricKey(canonicalSymmetry());
+    }
+
+    /** Return true iff symmetry #S carries my position to itself. */
+    boolean symmetric(int s) {
+        if (symmetricKey(s) != hashKey()) {
+            return false;
+        }
+        for (int n = 0; n < _cells.length; n += 1) {
+            if (_cells[_geometry.image(s, n)] != _cells[n]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns true iff OBJ is a Board with the same size, contents, and
+     *  side to move as mine.  Undo history is not compared. */
     @Override
     public boolean equals(Object obj) {
         if (!(obj instanceof Board)) {
             return false;
-        } else {
-            Board B = (Board) obj;
-            return this == obj;
         }
+        Board B = (Board) obj;
+        if (size() != B.size() || hashKey() != B.hashKey()) {
+            return false;
+        } else if (B._cells != null) {
+            return Arrays.equals(_cells, B._cells);
+        }
+        for (int n = 0; n < _cells.length; n += 1) {
+            if (get(n) != B.get(n)) {
+                return false;
+            }
+        }
+        return true;
     }
 
-
     @Override
     public int hashCode() {
-        return numPieces();
+        return Long.hashCode(hashKey());
     }
 
     /** Set my notifier to NOTIFY. */
@@ -549,10 +889,62 @@ class Board {
         _notifier.accept(this);
     }
 
+    /** Return the packed cell value for a square of SIDE holding SPOTS
+     *  spots.  Unowned squares always pack as WHITE_CELL. */
+    private static byte cell(Side side, int spots) {
+        if (side == Side.WHITE || spots == 0) {
+            return WHITE_CELL;
+        }
+        return (byte) (side.ordinal() << SIDE_SHIFT | spots);
+    }
+
+    /** Shift of the Side ordinal within a packed cell. */
+    private static final int SIDE_SHIFT = 4;
+
+    /** Mask extracting the spot count from a packed cell. */
+    private static final int SPOTS_MASK = (1 << SIDE_SHIFT) - 1;
+
+    /** Packed value of an unowned square (one white spot). */
+    private static final byte WHITE_CELL =
+        (byte) (Side.WHITE.ordinal() << SIDE_SHIFT | 1);
+
+    /** Sides indexed by ordinal, for decoding packed cells. */
+    private static final Side[] SIDES = Side.values();
+
+    /** Ordinal of WHITE, the owner of unowned squares. */
+    private static final int WHITE_ORDINAL = Side.WHITE.ordinal();
+
+    /** Hash key component denoting that Blue is to move. */
+    private static final long BLUE_TO_MOVE = 0x9e3779b97f4a7c15L;
+
+    /** Shift of the square number within a journal entry; the previous
+     *  packed cell occupies the bits below. */
+    private static final int JOURNAL_SHIFT = 8;
+
+    /** Shift of the journal position within an undo mark; the ordinal of
+     *  the player to move occupies the bits below. */
+    private static final int MARK_SHIFT = 2;
+
+    /** Log base 2 of the number of bits in a word of _queued. */
+    private static final int LOG_WORD = 6;
+
+    /** Initial capacity of _journal. */
+    private static final int INITIAL_JOURNAL_SIZE = 64;
+
+    /** Initial capacity of _undoMarks. */
+    private static final int INITIAL_UNDO_DEPTH = 16;
+
 
     /** Used in jump to keep track of squares needing processing.  Allocated
-     *  here to cut down on allocations. */
-    private ArrayDeque<Integer> _workQueue;
+     *  here to cut down on allocations.  Squares are processed last in,
+     *  first out; _workQueue[0 .. _workSize-1] holds the pending ones. */
+    private int[] _workQueue;
+
+    /** Number of squares waiting in _workQueue. */
+    private int _workSize;
+
+    /** Bit set of the squares waiting in _workQueue, 64 per word. */
+    private long[] _queued;
 
     /** A notifier that does nothing. */
     private static final Consumer<Board> NOP = (s) -> { };
@@ -563,8 +955,58 @@ class Board {
     /** Use _notifier.accept(B) to announce changes to this board. */
     private Consumer<Board> _notifier;
 
-    /** Representation of the board in a 2 dimensional array of squares. */
-    private Square[][] _squares;
+    /** Number of rows and of columns. */
+    private int _size;
+
+    /** Capacities and neighbor lists for squares of my size. */
+    private Geometry _geometry;
+
+    /** Contents of the board, one packed byte per square indexed by square
+     *  number: the Side ordinal above SIDE_SHIFT and the spot count in the
+     *  bits below.  Squares are materialized only by get. */
+    private byte[] _cells;
+
+    /** Number of squares held by each Side, indexed by ordinal.  Kept
+     *  current by internalSet. */
+    private final int[] _sideCounts = new int[SIDES.length];
+
+    /** Total spots on the squares held by each Side, indexed by ordinal.
+     *  Kept current by internalSet. */
+    private final int[] _spotCounts = new int[SIDES.length];
+
+    /** Zobrist hash of _cells, excluding the side to move.  Kept current
+     *  by internalSet. */
+    private long _key;
+
+    /** Zobrist hashes of the images of _cells under each symmetry other
+     *  than the identity, indexed by symmetry number, excluding the side
+     *  to move.  Kept current by internalSet. */
+    private final long[] _symmetricKeys = new long[Geometry.SYMMETRIES];
+
+    /** Number of squares at critical mass held by each Side, indexed by
+     *  ordinal.  The entry for WHITE counts all other squares.  Kept
+     *  current by internalSet. */
+    private final int[] _criticalCounts = new int[SIDES.length];
+
+    /** Number of pairs of adjacent critical squares held by opposing
+     *  sides.  Kept current by internalSet. */
+    private int _contested;
+
+    /** Number of pairs of adjacent squares in which one belongs to the
+     *  Side with a given ordinal and the other is an opposing critical
+     *  square, indexed by ordinal.  Kept current by internalSet. */
+    private final int[] _exposed = new int[SIDES.length];
+
+    /** True iff my size allows the bit-mask representation below. */
+    private boolean _masked;
+
+    /** Ownership bit boards, maintained only when _masked: bit #N of
+     *  _owned[S] is set iff square #N belongs to the Side with ordinal S. */
+    private final long[] _owned = new long[SIDES.length];
+
+    /** Spot-count bit planes, maintained only when _masked: bit #N of
+     *  _planes[P] is bit P of the spot count of square #N. */
+    private final long[] _planes = new long[SIDE_SHIFT];
 
     /** Number of moves that have been made. */
     private int _numMoves;
@@ -572,8 +1014,23 @@ class Board {
     /** Current player who is making a move. */
     private Side _currentPlayer;
 
-    /** History of board states stored in a deque. */
-    private ArrayDeque<Square[][]> _history;
+    /** Undo journal: the prior contents of every square changed since the
+     *  oldest undoable move, oldest first.  Each entry holds the square
+     *  number above JOURNAL_SHIFT and its previous packed cell below. */
+    private int[] _journal;
+
+    /** Number of entries in _journal. */
+    private int _journalSize;
+
+    /** One mark per undoable move, giving _journalSize when the move
+     *  began (above MARK_SHIFT) and the player then to move. */
+    private int[] _undoMarks;
+
+    /** Number of undoable moves recorded in _undoMarks. */
+    private int _undoDepth;
+
+    /** True iff I am in playout mode (see setPlayoutMode). */
+    private boolean _playout;
 
 
 }
@@ -1,6 +1,18 @@
 
 package jump61;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+
 import static jump61.Side.*;
 
 import org.junit.Test;
@@ -53,6 +65,575 @@ public class BoardTest {
         checkBoard("#0U", B);
     }
 
+    @Test
+    public void testCounts() {
+        Board B = new Board(2);
+        assertEquals("wrong count", 4, B.numOfSide(WHITE));
+        assertEquals("wrong pieces", 4, B.numPieces());
+        B.addSpot(RED, 1, 1);
+        B.addSpot(BLUE, 2, 2);
+        B.addSpot(RED, 1, 1);
+        assertEquals("wrong count", 3, B.numOfSide(RED));
+        assertEquals("wrong count", 1, B.numOfSide(BLUE));
+        assertEquals("wrong spots", 5, B.numOfSpots(RED));
+        assertEquals("wrong pieces", 7, B.numPieces());
+        assertNull("premature winner", B.getWinner());
+        B.addSpot(BLUE, 2, 2);
+        assertEquals("wrong winner", BLUE, B.getWinner());
+        assertEquals("wrong count", 0, B.numOfSide(RED));
+        B.undo();
+        assertNull("winner after undo", B.getWinner());
+        assertEquals("wrong count", 3, B.numOfSide(RED));
+        assertEquals("wrong pieces", 7, B.numPieces());
+    }
+
+    @Test
+    public void testNeighbors() {
+        Board B = new Board(4);
+        assertEquals("corner", 2, B.neighbors(1, 1));
+        assertEquals("edge", 3, B.neighbors(1, 3));
+        assertEquals("interior", 4, B.neighbors(2, 3));
+        assertArrayEquals(new int[] { 1, 4 }, B.allNeighbors(0));
+        assertArrayEquals(new int[] { 10, 13, 8, 5 }, B.allNeighbors(9));
+        assertArrayEquals(new int[] { 14, 11 }, B.allNeighbors(15));
+        assertSame("tables not shared", B.geometry(),
+                   new Board(4).geometry());
+    }
+
+    @Test
+    public void testMasks() {
+        Board B = new Board(5);
+        Random rand = new Random(61);
+        for (int k = 0; k < 40 && B.getWinner() == null; k += 1) {
+            long legal = B.legalMask(B.whoseMove());
+            int n;
+            do {
+                n = rand.nextInt(25);
+            } while (!B.isLegal(B.whoseMove(), n));
+            assertTrue("legal square missing", (legal & 1L << n) != 0);
+            B.addSpot(B.whoseMove(), n);
+            if (k % 7 == 6) {
+                B.undo();
+            }
+            for (n = 0; n < 25; n += 1) {
+                Square sq = B.get(n);
+                long bit = 1L << n;
+                assertTrue("bad owner mask",
+                           (B.ownedMask(sq.getSide()) & bit) != 0);
+                assertTrue("bad spot mask",
+                           (B.spotsMask(sq.getSpots()) & bit) != 0);
+                boolean full = sq.getSide() != WHITE
+                    && sq.getSpots() == B.neighbors(n);
+                assertEquals("bad critical mask", full,
+                             (B.criticalMask(sq.getSide()) & bit) != 0);
+                assertEquals("bad critical square",
+                             sq.getSpots() == B.neighbors(n), B.critical(n));
+            }
+        }
+    }
+
+    @Test
+    public void testFeatures() {
+        Board B = new Board(4);
+        Random rand = new Random(12);
+        for (int k = 0; k < 60 && B.getWinner() == null; k += 1) {
+            int n;
+            do {
+                n = rand.nextInt(16);
+            } while (!B.isLegal(B.whoseMove(), n));
+            B.addSpot(B.whoseMove(), n);
+            if (k % 5 == 4) {
+                B.undo();
+            }
+            for (Side side : new Side[] { RED, BLUE }) {
+                int critical, exposed, contested;
+                critical = exposed = contested = 0;
+                for (n = 0; n < 16; n += 1) {
+                    if (B.get(n).getSide() != side || !B.critical(n)) {
+                        continue;
+                    }
+                    critical += 1;
+                    for (int m : B.allNeighbors(n)) {
+                        if (B.get(m).getSide() == side.opposite()) {
+                            exposed += 1;
+                            if (B.critical(m)) {
+                                contested += 1;
+                            }
+                        }
+                    }
+                }
+                assertEquals("critical", critical, B.numOfCritical(side));
+                assertEquals("exposed", exposed,
+                             B.numOfExposed(side.opposite()));
+                assertEquals("contested", contested, B.numOfContested());
+            }
+        }
+    }
+
+    @Test
+    public void testDecided() {
+        Board B = new Board(4);
+        Random rand = new Random(5);
+        while (B.getWinner() == null) {
+            Side player = B.whoseMove();
+            boolean wins = false;
+            for (int n = 0; n < 16; n += 1) {
+                if (B.isLegal(player, n)) {
+                    B.addSpot(player, n);
+                    wins |= B.getWinner() == player;
+                    B.undo();
+                }
+            }
+            Side decided = B.decidedWinner();
+            assertTrue("unsound decision", decided == null
+                       || decided == player && wins);
+            int n;
+            do {
+                n = rand.nextInt(16);
+            } while (!B.isLegal(player, n));
+            B.addSpot(player, n);
+        }
+        assertEquals("winner not decided", B.getWinner(), B.decidedWinner());
+        for (int size : new int[] { 4, 9 }) {
+            Board C = new Board(size);
+            for (int n = 0; n < size * size; n += 1) {
+                C.set(C.row(n), C.col(n), C.neighbors(n),
+                      n % 3 == 0 ? RED : BLUE);
+            }
+            assertEquals("sweep missed", C.whoseMove(), C.decidedWinner());
+            C.set(1, 1, 1, C.get(1, 1).getSide());
+            C.set(1, 2, 1, C.get(1, 2).getSide());
+            C.set(2, 1, 1, C.get(2, 1).getSide());
+            assertNull("corner cannot be reached", C.decidedWinner());
+        }
+    }
+
+    @Test
+    public void testSetPosition() {
+        Board B = new Board(3);
+        B.addSpot(RED, 0);
+        B.addSpot(BLUE, 4);
+        B.addSpot(RED, 0);
+        String before = B.toString();
+        Board C = new Board(3);
+        C.setPlayoutMode(true);
+        C.setPosition(B);
+        assertEquals("contents differ", before, C.toString());
+        assertEquals("wrong side to move", B.whoseMove(), C.whoseMove());
+        C.addSpot(BLUE, 2);
+        assertEquals("wrong side to move", RED, C.whoseMove());
+        assertEquals("source changed", before, B.toString());
+    }
+
+    @Test
+    public void testRollouts() {
+        Board B = new Board(3);
+        B.addSpot(RED, 4);
+        Rollout.Stats one = Rollout.run(B, 500, 61, 1);
+        Rollout.Stats three = Rollout.run(B, 500, 61, 3);
+        assertEquals("wrong count", 500, one.count());
+        assertEquals("results depend on threads",
+                     one.wins(RED), three.wins(RED));
+        assertEquals("results depend on threads",
+                     one.meanLength(), three.meanLength(), 0.0);
+        assertEquals("wins do not add up", 500,
+                     one.wins(RED) + one.wins(BLUE) + one.wins(WHITE));
+        assertTrue("bad lengths", 0 < one.minLength()
+                   && one.minLength() <= one.maxLength());
+        for (long k = 0; k < 100; k += 1) {
+            SplittableRandom r0 = new SplittableRandom(Rollout.seed(61, k)),
+                r1 = new SplittableRandom(Rollout.seed(61, k + 1));
+            r0.nextLong();
+            assertTrue("correlated playouts", r0.nextLong() != r1.nextLong());
+        }
+    }
+
+    @Test
+    public void testSymmetry() {
+        Board B = new Board(5);
+        for (int s = 0; s < Geometry.SYMMETRIES; s += 1) {
+            assertTrue("empty board not symmetric", B.symmetric(s));
+        }
+        Random rand = new Random(8);
+        for (int k = 0; k < 12; k += 1) {
+            int n;
+            do {
+                n = rand.nextInt(25);
+            } while (!B.isLegal(B.whoseMove(), n));
+            B.addSpot(B.whoseMove(), n);
+        }
+        Geometry geom = B.geometry();
+        for (int s = 0; s < Geometry.SYMMETRIES; s += 1) {
+            int t = Geometry.inverse(s);
+            Board image = new Board(B);
+            for (int n = 0; n < 25; n += 1) {
+                assertEquals("bad inverse", n,
+                             geom.image(t, geom.image(s, n)));
+                Square sq = B.get(n);
+                int m = geom.image(s, n);
+                image.set(image.row(m), image.col(m), sq.getSpots(),
+                          sq.getSide());
+            }
+            assertEquals("bad symmetric key", B.symmetricKey(s),
+                         image.hashKey());
+            assertEquals("bad canonical key", B.canonicalKey(),
+                         image.canonicalKey());
+        }
+    }
+
+    @Test
+    public void testRootChoice() {
+        Game game = new Game((p) -> null, (b) -> { }, new TextReporter(),
+                             false);
+        int[] moves = {
+            7, 2, 26, 17, 26, 8, 16, 35, 27, 30, 27, 1, 15, 13, 3, 5, 4,
+            12, 24, 32, 26, 25, 23, 29, 14, 8, 9, 21, 22, 21, 19, 18, 11,
+            35, 22, 18, 7, 32, 10, 0, 11, 18, 4, 12, 10, 17, 23, 32, 16, 13,
+        };
+        for (int n : moves) {
+            game.makeMove(n);
+        }
+        Board B = new Board(game.getBoard());
+        Board C = new Board(B);
+        C.addSpot(RED, 5, 5);
+        assertTrue("5 5 does not lose", forcesWin(C, 3));
+        String[] move = new AI(game, RED, 0).getMove().split(" ");
+        B.addSpot(RED, Integer.parseInt(move[0]), Integer.parseInt(move[1]));
+        assertFalse("move lets Blue win", forcesWin(B, 3));
+    }
+
+    /** Return true iff the player to move on B can force a win within
+     *  PLIES moves of either side. */
+    private boolean forcesWin(Board B, int plies) {
+        Side player = B.whoseMove();
+        int squares = B.size() * B.size();
+        for (int n = 0; n < squares; n += 1) {
+            if (B.isLegal(player, n)) {
+                B.addSpot(player, n);
+                boolean won = B.getWinner() == player;
+                if (!won && plies > 2) {
+                    won = true;
+                    for (int m = 0; m < squares && won; m += 1) {
+                        if (B.isLegal(player.opposite(), m)) {
+                            B.addSpot(player.opposite(), m);
+                            won = B.getWinner() == null
+                                && forcesWin(B, plies - 2);
+                            B.undo();
+                        }
+                    }
+                }
+                B.undo();
+                if (won) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testEquality() {
+        Board B = new Board(4);
+        Board C = new Board(4);
+        assertEquals("fresh boards differ", B, C);
+        assertEquals("bad hash", B.hashCode(), C.hashCode());
+        assertNotEquals("sizes not distinguished", B, new Board(5));
+        B.addSpot(RED, 1, 1);
+        assertNotEquals("move not seen", B, C);
+        B.addSpot(BLUE, 4, 4);
+        B.addSpot(RED, 2, 2);
+        C.addSpot(RED, 2, 2);
+        C.addSpot(BLUE, 4, 4);
+        C.addSpot(RED, 1, 1);
+        assertEquals("transposition differs", B, C);
+        assertEquals("bad key", B.hashKey(), C.hashKey());
+        assertEquals("bad copy", B, new Board(B.readonlyBoard()));
+        assertEquals("bad view", C.readonlyBoard(), B);
+        long key = B.hashKey();
+        B.addSpot(BLUE, 4, 4);
+        B.undo();
+        assertEquals("undo changed key", key, B.hashKey());
+    }
+
+    @Test
+    public void testSolver() {
+        Random random = new Random(61);
+        Solver solver = new Solver(1);
+        for (int trial = 0; trial < 20; trial += 1) {
+            Board B = new Board(3);
+            for (int k = random.nextInt(12); k > 0; k -= 1) {
+                int n;
+                do {
+                    n = random.nextInt(9);
+                } while (!B.isLegal(B.whoseMove(), n));
+                B.addSpot(B.whoseMove(), n);
+                if (B.getWinner() != null) {
+                    B.undo();
+                    break;
+                }
+            }
+            String before = B.toString();
+            int result = solver.solve(B);
+            assertEquals("solve changed board", before, B.toString());
+            boolean wins = wins(B, new HashMap<>());
+            assertEquals("wrong result", wins ? Solver.WIN : Solver.LOSS,
+                         result);
+            if (wins) {
+                B.addSpot(B.whoseMove(), solver.move());
+                assertTrue("losing proof move",
+                           B.getWinner() != null
+                           || !wins(B, new HashMap<>()));
+            }
+        }
+        Board C = new Board(4);
+        String[] rows = { "1r 3b 2b 1b", "2r 4b 2b 3b",
+                          "3r 4b 2b 3b", "1r 3b 2b 2b" };
+        for (int r = 1; r <= 4; r += 1) {
+            String[] cells = rows[r - 1].split(" ");
+            for (int c = 1; c <= 4; c += 1) {
+                C.set(r, c, cells[c - 1].charAt(0) - '0',
+                      cells[c - 1].charAt(1) == 'r' ? RED : BLUE);
+            }
+        }
+        C.setWhoseMove(RED);
+        Board start = new Board(C);
+        boolean recurs = false;
+        for (int m = 0; m < 16; m += 1) {
+            if (C.isLegal(RED, m)) {
+                C.addSpot(RED, m);
+                for (int n = 0; n < 16; n += 1) {
+                    if (C.getWinner() == null && C.isLegal(BLUE, n)) {
+                        C.addSpot(BLUE, n);
+                        recurs |= C.equals(start);
+                        C.undo();
+                    }
+                }
+                C.undo();
+            }
+        }
+        assertTrue("position cannot recur", recurs);
+        assertEquals("wrong result with repetition", Solver.LOSS,
+                     new Solver(1).solve(C));
+    }
+
+    @Test
+    public void testTablebase() throws IOException {
+        Path file = Files.createTempFile("jump61", ".tb");
+        try {
+            Tablebase.generate(3, 2, file, new PrintStream(
+                                   new ByteArrayOutputStream()));
+            Tablebase table = new Tablebase(3, file);
+            Map<Board, Boolean> known = new HashMap<>();
+            Random random = new Random(61);
+            for (int trial = 0; trial < 50; trial += 1) {
+                Board B = new Board(3);
+                for (int k = random.nextInt(16); k > 0; k -= 1) {
+                    int n;
+                    do {
+                        n = random.nextInt(9);
+                    } while (!B.isLegal(B.whoseMove(), n));
+                    B.addSpot(B.whoseMove(), n);
+                    if (B.getWinner() != null) {
+                        B.undo();
+                        break;
+                    }
+                }
+                assertEquals("wrong value",
+                             wins(B, known) ? Tablebase.WIN : Tablebase.LOSS,
+                             table.value(B));
+            }
+            Board B = new Board(3);
+            B.set(1, 1, 2, RED);
+            B.set(3, 3, 2, RED);
+            assertEquals("unreachable position in table", Tablebase.UNKNOWN,
+                         table.value(B));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testOpeningBook() throws IOException {
+        Path file = Files.createTempFile("jump61", ".book");
+        try {
+            OpeningBook.build(1, 10, 1, file, new PrintStream(
+                                  new ByteArrayOutputStream()));
+            OpeningBook book = new OpeningBook(file);
+            assertEquals("wrong number of positions",
+                         Defaults.MAX_BOARD_SIZE - 1, book.size());
+            for (int size = 2; size <= Defaults.MAX_BOARD_SIZE; size += 1) {
+                Board B = new Board(size);
+                int move = book.move(B);
+                assertTrue("no legal book move",
+                           move != TranspositionTable.NO_MOVE
+                           && B.isLegal(RED, move));
+                B.addSpot(RED, move);
+                assertEquals("move after book", TranspositionTable.NO_MOVE,
+                             book.move(B));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testSearchStore() throws IOException {
+        Path file = Files.createTempFile("jump61", ".store");
+        Files.delete(file);
+        try {
+            SearchStore store = new SearchStore(file, 8);
+            SearchStore other = new SearchStore(file, 8);
+            store.record(1, 3, -50, 7);
+            store.record(1, 2, 10, 4);
+            long entry = other.probe(1);
+            assertEquals("wrong depth", 3, SearchStore.depth(entry));
+            assertEquals("wrong score", -50, SearchStore.score(entry));
+            assertEquals("wrong move", 7, SearchStore.move(entry));
+            assertEquals("phantom entry", 0, other.probe(2));
+            for (long key = 2; key < 40; key += 1) {
+                store.record(key, (int) key, 0, 0);
+            }
+            assertTrue("store not bounded", store.size() <= 8);
+            assertTrue("file not compacted",
+                       Files.size(file) <= 8 + 16 * 2 * 8);
+            store.close();
+            other.close();
+            store = new SearchStore(file, 8);
+            assertEquals("deep entry lost", 39,
+                         SearchStore.depth(store.probe(39)));
+            assertEquals("shallow entry kept", 0, store.probe(1));
+            store.close();
+            Files.delete(file);
+            store = new SearchStore(file, 8);
+            Board B = new Board(4);
+            store.record(B.hashKey(), 1, 0, 0);
+            Game game = new Game((p) -> null, (b) -> { }, new TextReporter(),
+                                 false);
+            AI ai = new AI(game, RED, 0);
+            ai.setTimeLimit(50);
+            ai.setStore(store);
+            ai.searchForMove(B);
+            assertTrue("stored move used before searching",
+                       ai.nodesSearched() > 0);
+            B.addSpot(RED, 0);
+            store.record(B.hashKey(), 1, 0, 1);
+            ai.searchForMove(B);
+            assertTrue("shallow stored move used", ai.nodesSearched() > 0);
+            store.close();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testCancelSearch() {
+        CommandSource source = new CommandSource() {
+                @Override
+                public String getCommand(String prompt) {
+                    return null;
+                }
+
+                @Override
+                public String pollCommand() {
+                    return "new";
+                }
+            };
+        Game game = new Game(source, (b) -> { }, new TextReporter(), false);
+        AI ai = new AI(game, Side.RED, 0);
+        ai.setTimeLimit(0);
+        long start = System.currentTimeMillis();
+        assertEquals("search not cancelled", "new", ai.getMove());
+        assertTrue("search cancelled late",
+                   System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void testCancelPlayouts() {
+        CommandSource source = new CommandSource() {
+                @Override
+                public String getCommand(String prompt) {
+                    return null;
+                }
+
+                @Override
+                public String pollCommand() {
+                    return "new";
+                }
+            };
+        Game game = new Game(source, (b) -> { }, new TextReporter(), false);
+        MonteCarloPlayer mcts = new MonteCarloPlayer(game, Side.RED, 0);
+        mcts.setTimeLimit(60000);
+        long start = System.currentTimeMillis();
+        assertEquals("search not cancelled", "new", mcts.getMove());
+        assertTrue("search cancelled late",
+                   System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void testReproducibleGames() {
+        String[] setup = {
+            "size 4", "seed 61", "time 0", "plies 3", "threads 1",
+            "auto red mcts", "auto blue",
+        };
+        List<String> first = playGame(setup);
+        assertEquals("games differ", first, playGame(setup));
+        assertTrue("game not played", first.size() > 2);
+    }
+
+    /** Return the positions, in board-dump format, of a game played
+     *  after COMMANDS, as shown to the game's View. */
+    private List<String> playGame(String... commands) {
+        List<String> positions = new ArrayList<>();
+        CommandSource source = new CommandSource() {
+                @Override
+                public String getCommand(String prompt) {
+                    if (_next < commands.length) {
+                        _next += 1;
+                        return commands[_next - 1];
+                    }
+                    return "quit";
+                }
+
+                /** Number of COMMANDS returned so far. */
+                private int _next;
+            };
+        Game game = new Game(source, (b) -> positions.add(b.toString()),
+                             new TextReporter(), false);
+        game.play();
+        return positions;
+    }
+
+    @Test
+    public void testElo() {
+        assertEquals("even score", 0, Tournament.elo(0.5, 100), 1e-9);
+        assertEquals("3:1 score", 190.8, Tournament.elo(0.75, 100), 0.1);
+        assertEquals("asymmetric", -Tournament.elo(0.2, 100),
+                     Tournament.elo(0.8, 100), 1e-9);
+        assertTrue("infinite rating", Tournament.elo(1, 100) < 1000);
+        assertEquals("asymmetric at extremes", -Tournament.elo(0, 100),
+                     Tournament.elo(1, 100), 1e-9);
+    }
+
+    /** Return true iff the player to move on B, whose game is not over,
+     *  can force a win, using and adding to the results in KNOWN. */
+    private boolean wins(Board B, Map<Board, Boolean> known) {
+        Boolean result = known.get(B);
+        if (result != null) {
+            return result;
+        }
+        result = false;
+        Side player = B.whoseMove();
+        for (int n = 0; n < B.size() * B.size() && !result; n += 1) {
+            if (B.isLegal(player, n)) {
+                B.addSpot(player, n);
+                result = B.getWinner() == player || !wins(B, known);
+                B.undo();
+            }
+        }
+        known.put(new Board(B), result);
+        return result;
+    }
+
     /** Checks that B conforms to the description given by CONTENTS.
      *  CONTENTS should be a sequence of groups of 4 items:
      *  r, c, n, s, where r and c are row and column number of a square of B,
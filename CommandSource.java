@@ -20,4 +20,12 @@ interface CommandSource {
      *  prompts for input, use PROMPT, if not null, to do so. */
     String getCommand(String prompt);
 
+    /** Returns the first waiting command string that is not a move, as for
+     *  getCommand, if one is available at once, and otherwise null.  Moves
+     *  waiting before it remain to be returned by getCommand.  By default,
+     *  commands are never available at once. */
+    default String pollCommand() {
+        return null;
+    }
+
 }
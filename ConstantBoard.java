@@ -24,6 +24,11 @@ class ConstantBoard extends Board {
         return _board.size();
     }
 
+    @Override
+    Geometry geometry() {
+        return _board.geometry();
+    }
+
     @Override
     Square get(int n) {
         return _board.get(n);
@@ -44,6 +49,11 @@ class ConstantBoard extends Board {
         return _board.isLegal(player, r, c);
     }
 
+    @Override
+    boolean isLegal(Side player, int n) {
+        return _board.isLegal(player, n);
+    }
+
     @Override
     boolean isLegal(Side player) {
         return _board.isLegal(player);
@@ -54,6 +64,96 @@ class ConstantBoard extends Board {
         return _board.numOfSide(color);
     }
 
+    @Override
+    int numOfSpots(Side color) {
+        return _board.numOfSpots(color);
+    }
+
+    @Override
+    long ownedMask(Side color) {
+        return _board.ownedMask(color);
+    }
+
+    @Override
+    long spotsMask(int spots) {
+        return _board.spotsMask(spots);
+    }
+
+    @Override
+    long criticalMask(Side color) {
+        return _board.criticalMask(color);
+    }
+
+    @Override
+    long legalMask(Side player) {
+        return _board.legalMask(player);
+    }
+
+    @Override
+    int numOfCritical(Side color) {
+        return _board.numOfCritical(color);
+    }
+
+    @Override
+    int numOfContested() {
+        return _board.numOfContested();
+    }
+
+    @Override
+    int numOfExposed(Side color) {
+        return _board.numOfExposed(color);
+    }
+
+    @Override
+    int numOfBadSquares(Side color) {
+        return _board.numOfBadSquares(color);
+    }
+
+    @Override
+    Side decidedWinner() {
+        return _board.decidedWinner();
+    }
+
+    @Override
+    int neighbors(int n) {
+        return _board.neighbors(n);
+    }
+
+    @Override
+    boolean critical(int n) {
+        return _board.critical(n);
+    }
+
+    @Override
+    int[] allNeighbors(int n) {
+        return _board.allNeighbors(n);
+    }
+
+    @Override
+    long hashKey() {
+        return _board.hashKey();
+    }
+
+    @Override
+    long symmetricKey(int s) {
+        return _board.symmetricKey(s);
+    }
+
+    @Override
+    int canonicalSymmetry() {
+        return _board.canonicalSymmetry();
+    }
+
+    @Override
+    long canonicalKey() {
+        return _board.canonicalKey();
+    }
+
+    @Override
+    boolean symmetric(int s) {
+        return _board.symmetric(s);
+    }
+
     @Override
     public boolean equals(Object obj) {
         return _board.equals(obj);
@@ -96,6 +196,18 @@ class ConstantBoard extends Board {
     void undo() {
     }
 
+    @Override
+    void setPlayoutMode(boolean playout) {
+    }
+
+    @Override
+    void setPosition(Board board) {
+    }
+
+    @Override
+    void setWhoseMove(Side player) {
+    }
+
     /** Original board that all operations are delegated to. */
     private Board _board;
 
@@ -15,4 +15,54 @@ class Defaults {
     /** Maximum number of squares on the side of a game board. */
     static final int MAX_BOARD_SIZE = 10;
 
+    /** Default (and largest) depth limit of an AI's search, in moves. */
+    static final int SEARCH_DEPTH = 64;
+
+    /** Default time allowed to an AI for each move, in milliseconds. */
+    static final long MOVE_TIME = 1000;
+
+    /** Default memory budget of an AI's transposition table, in
+     *  megabytes. */
+    static final int TABLE_SIZE = 16;
+
+    /** Default number of threads with which an AI searches. */
+    static final int SEARCH_THREADS = 1;
+
+    /** True iff an AI treats positions that are rotations or reflections
+     *  of each other as equivalent by default. */
+    static final boolean SYMMETRY = false;
+
+    /** True iff an AI ponders on its opponent's time by default. */
+    static final boolean PONDER = false;
+
+    /** Default limit on the positions expanded by the solve command, or
+     *  0 for no limit. */
+    static final long SOLVE_NODES = 0;
+
+    /** Default time allowed to the solve command, in milliseconds, or 0
+     *  for no limit. */
+    static final long SOLVE_TIME = 10000;
+
+    /** Name of the file holding the table of perfect play for N x N
+     *  boards, as a format applied to N. */
+    static final String TABLEBASE_FILE = "jump61-%1$dx%1$d.tb";
+
+    /** Name of the file holding the opening book. */
+    static final String BOOK_FILE = "jump61.book";
+
+    /** Time allowed to each search made for the opening book, in
+     *  milliseconds. */
+    static final long BOOK_TIME = 10000;
+
+    /** Name of the file in which AIs keep the results of their searches
+     *  when the store command is on. */
+    static final String STORE_FILE = "jump61.store";
+
+    /** Largest number of positions kept in the file STORE_FILE. */
+    static final int STORE_ENTRIES = 1 << 16;
+
+    /** Number of playouts made by each thread of a Monte Carlo player
+     *  for each move when it has no time limit. */
+    static final int PLAYOUTS = 10000;
+
 }
@@ -5,6 +5,7 @@ import ucb.gui2.TopLevel;
 import ucb.gui2.LayoutSpec;
 
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.regex.Pattern;
 
 /** The GUI controller for jump61.  To require minimal change to textual
  *  interface, we adopt the strategy of converting GUI input (mouse clicks)
@@ -31,6 +32,7 @@ class Display extends TopLevel implements View, CommandSource, Reporter {
         addButton("Computer Only", this::computerOnly, new LayoutSpec("y", 5));
         _boardWidget = new BoardWidget(_commandQueue);
         add(_boardWidget, new LayoutSpec("y", 1, "width", 2));
+        addLabel("", "progress", new LayoutSpec("y", 2, "width", 2));
         display(true);
     }
 
@@ -96,6 +98,7 @@ class Display extends TopLevel implements View, CommandSource, Reporter {
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
+        setLabel("progress", "");
         _boardWidget.update(board);
         pack();
         _boardWidget.repaint();
@@ -110,6 +113,17 @@ class Display extends TopLevel implements View, CommandSource, Reporter {
         }
     }
 
+    @Override
+    public String pollCommand() {
+        for (String cmnd : _commandQueue) {
+            if (!MOVE_PATN.matcher(cmnd).matches()
+                && _commandQueue.remove(cmnd)) {
+                return cmnd;
+            }
+        }
+        return null;
+    }
+
     @Override
     public void announceWin(Side side) {
         showMessage(String.format("%s wins!", side.toCapitalizedString()),
@@ -120,6 +134,16 @@ class Display extends TopLevel implements View, CommandSource, Reporter {
     public void announceMove(int row, int col) {
     }
 
+    @Override
+    public void announceProgress(Side player, int depth, int row, int col,
+                                 long nodesPerSecond) {
+        setLabel("progress",
+                 String.format("%s thinking: depth %d, best %d %d, "
+                               + "%d positions/s",
+                               player.toCapitalizedString(), depth, row, col,
+                               nodesPerSecond));
+    }
+
     @Override
     public void msg(String format, Object... args) {
         showMessage(String.format(format, args), "", "information");
@@ -130,6 +154,9 @@ class Display extends TopLevel implements View, CommandSource, Reporter {
         showMessage(String.format(format, args), "Error", "error");
     }
 
+    /** Syntax of the moves sent by _boardWidget. */
+    private static final Pattern MOVE_PATN = Pattern.compile("\\d+ \\d+");
+
     /** Time interval in msec to wait after a board update. */
     static final long BOARD_UPDATE_INTERVAL = 60;
 
@@ -1,6 +1,9 @@
 
 package jump61;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+
 import static jump61.Side.*;
 import static jump61.GameException.error;
 import static jump61.Utils.*;
@@ -16,8 +19,9 @@ class Game {
     /** A list of all commands. */
     private static final String[] COMMAND_NAMES = {
         "auto", "board", "clear", "dump", "help", "manual",
-        "new", "q", "quiet", "quit",
-        "seed", "set", "size", "start", "verbose",
+        "new", "plies", "ponder", "q", "quiet", "quit", "rollouts",
+        "seed", "set", "size", "solve", "start",
+        "store", "symmetry", "table", "threads", "time", "verbose",
     };
 
     /** A new Game that takes command/move input from INP, logs
@@ -31,6 +35,12 @@ class Game {
         _reporter = reporter;
         _logging = logging;
         _seed = (long) (Math.random() * Long.MAX_VALUE);
+        _tableSize = Defaults.TABLE_SIZE;
+        _maxDepth = Defaults.SEARCH_DEPTH;
+        _timeLimit = Defaults.MOVE_TIME;
+        _threads = Defaults.SEARCH_THREADS;
+        _symmetry = Defaults.SYMMETRY;
+        _ponder = Defaults.PONDER;
         _board = new Board(Defaults.BOARD_SIZE);
         _readonlyBoard = new ConstantBoard(_board);
         _board.setNotifier((b) -> _view.update(b));
@@ -65,12 +75,20 @@ class Game {
             if (_board.getWinner() == null) {
                 winnerAnnounced = false;
                 try {
-                    executeCommand(getPlayer(_board.whoseMove()).getMove());
+                    Player player = getPlayer(_board.whoseMove());
+                    int square = player.getMoveSquare();
+                    if (square == TranspositionTable.NO_MOVE) {
+                        executeCommand(player.getMove());
+                    } else {
+                        log("%d %d", _board.row(square), _board.col(square));
+                        makeMove(square);
+                    }
                 } catch (GameException e) {
                     reportError(e.getMessage());
                 }
             } else if (!gameInProgress()) {
                 if (!winnerAnnounced) {
+                    stopPondering();
                     _reporter.announceWin(_board.getWinner());
                     winnerAnnounced = true;
                 }
@@ -99,6 +117,13 @@ class Game {
         }
     }
 
+    /** Return a command other than a move from the current source if one
+     *  is waiting, and otherwise null, without waiting for one (see
+     *  CommandSource.pollCommand). */
+    String pollCommand() {
+        return _inp.pollCommand();
+    }
+
     /** Add a spot to R C, if legal to do so. */
     void makeMove(int r, int c) {
         assert _board.isLegal(_board.whoseMove(), r, c);
@@ -134,6 +159,14 @@ class Game {
         _reporter.announceMove(row, col);
     }
 
+    /** Report that PLAYER's search for a move has completed DEPTH moves,
+     *  finding a move to ROW COL, while visiting NODESPERSECOND positions
+     *  per second. */
+    void reportProgress(Side player, int depth, int row, int col,
+                        long nodesPerSecond) {
+        _reporter.announceProgress(player, depth, row, col, nodesPerSecond);
+    }
+
     /** Send a message to the user as determined by FORMAT and ARGS, which
      *  are interpreted as for String.format or PrintWriter.printf. */
     void message(String format, Object... args) {
@@ -147,10 +180,59 @@ class Game {
 
     /** Make the player of COLOR an AI for subsequent moves. */
     private void setAuto(Side color) {
-        setPlayer(color, new AI(this, color, _seed));
+        setAuto(color, "minimax");
+    }
+
+    /** Make the player of COLOR an automated player of the kind named by
+     *  ENGINE ("minimax" for an AI, or "mcts" for a MonteCarloPlayer) for
+     *  subsequent moves. */
+    private void setAuto(Side color, String engine) {
+        switch (engine) {
+        case "minimax":
+            AI ai = new AI(this, color, _seed);
+            configure(ai);
+            setPlayer(color, ai);
+            break;
+        case "mcts":
+            MonteCarloPlayer mcts = new MonteCarloPlayer(this, color, _seed);
+            configure(mcts);
+            setPlayer(color, mcts);
+            break;
+        default:
+            throw error("unknown kind of automated player: %s", engine);
+        }
         _seed += 1;
     }
 
+    /** Apply the current settings for automated players to AI. */
+    private void configure(AI ai) {
+        ai.setTableSize(_tableSize);
+        ai.setMaxDepth(_maxDepth);
+        ai.setTimeLimit(_timeLimit);
+        ai.setThreads(_threads);
+        ai.setSymmetry(_symmetry);
+        ai.setStore(_store);
+        ai.setPondering(_ponder);
+    }
+
+    /** Apply the current settings for automated players to MCTS. */
+    private void configure(MonteCarloPlayer mcts) {
+        mcts.setTimeLimit(_timeLimit);
+        mcts.setThreads(_threads);
+    }
+
+    /** Apply the current settings for automated players to all current
+     *  automated players. */
+    private void configureAIs() {
+        for (Player player : _players) {
+            if (player instanceof AI) {
+                configure((AI) player);
+            } else if (player instanceof MonteCarloPlayer) {
+                configure((MonteCarloPlayer) player);
+            }
+        }
+    }
+
     /** Make the player of COLOR take manual input from the user for
      *  subsequent moves. */
     private void setManual(Side color) {
@@ -164,11 +246,24 @@ class Game {
 
     /** Set getPlayer(COLOR) to PLAYER. */
     private void setPlayer(Side color, Player player) {
+        if (_players[color.ordinal()] instanceof AI) {
+            ((AI) _players[color.ordinal()]).stopPondering();
+        }
         _players[color.ordinal()] = player;
     }
 
+    /** Stop any pondering by the minimax AI players. */
+    private void stopPondering() {
+        for (Player player : _players) {
+            if (player instanceof AI) {
+                ((AI) player).stopPondering();
+            }
+        }
+    }
+
     /** Clear the board to its initial state. */
     void clear() {
+        stopPondering();
         _board.clear(_board.size());
     }
 
@@ -206,6 +301,169 @@ class Game {
         }
     }
 
+    /** Limit the transposition table of each AI player, present and
+     *  future, to about MEGABYTES megabytes.  Requires MEGABYTES > 0. */
+    private void setTableSize(int megabytes) {
+        if (megabytes <= 0) {
+            throw error("table size must be positive");
+        }
+        _tableSize = megabytes;
+        configureAIs();
+    }
+
+    /** Limit the search of each AI player, present and future, to PLIES
+     *  moves ahead.  Requires 0 < PLIES <= Defaults.SEARCH_DEPTH. */
+    private void setMaxDepth(int plies) {
+        if (plies <= 0 || plies > Defaults.SEARCH_DEPTH) {
+            throw error("search depth must be between 1 and %d",
+                        Defaults.SEARCH_DEPTH);
+        }
+        _maxDepth = plies;
+        configureAIs();
+    }
+
+    /** Allow each AI player, present and future, about MILLIS
+     *  milliseconds per move, or unlimited time if MILLIS is 0. */
+    private void setTimeLimit(long millis) {
+        if (millis < 0) {
+            throw error("time limit must not be negative");
+        }
+        _timeLimit = millis;
+        configureAIs();
+    }
+
+    /** Let each AI player, present and future, search with THREADS
+     *  threads.  Requires THREADS > 0. */
+    private void setThreads(int threads) {
+        if (threads <= 0) {
+            throw error("number of threads must be positive");
+        }
+        _threads = threads;
+        configureAIs();
+    }
+
+    /** Let each minimax AI player, present and future, treat positions
+     *  that are rotations or reflections of each other as equivalent iff
+     *  SETTING is "on" (rather than "off"). */
+    private void setSymmetry(String setting) {
+        switch (setting.toLowerCase()) {
+        case "on":
+            _symmetry = true;
+            break;
+        case "off":
+            _symmetry = false;
+            break;
+        default:
+            throw error("symmetry must be 'on' or 'off'");
+        }
+        configureAIs();
+    }
+
+    /** Let each minimax AI player, present and future, ponder on its
+     *  opponent's time iff SETTING is "on" (rather than "off"). */
+    private void setPondering(String setting) {
+        switch (setting.toLowerCase()) {
+        case "on":
+            _ponder = true;
+            break;
+        case "off":
+            _ponder = false;
+            break;
+        default:
+            throw error("ponder must be 'on' or 'off'");
+        }
+        configureAIs();
+    }
+
+    /** Let each minimax AI player, present and future, keep the results
+     *  of its searches in the file Defaults.STORE_FILE, and use those it
+     *  finds there, iff SETTING is "on" (rather than "off"). */
+    private void setStore(String setting) {
+        switch (setting.toLowerCase()) {
+        case "on":
+            if (_store == null) {
+                try {
+                    _store = new SearchStore(Paths.get(Defaults.STORE_FILE),
+                                             Defaults.STORE_ENTRIES);
+                } catch (IOException excp) {
+                    throw error("could not use %s: %s", Defaults.STORE_FILE,
+                                excp.getMessage());
+                }
+            }
+            break;
+        case "off":
+            if (_store != null) {
+                try {
+                    _store.close();
+                } catch (IOException excp) {
+                    /* Ignore: the store is only a cache. */
+                }
+                _store = null;
+            }
+            break;
+        default:
+            throw error("store must be 'on' or 'off'");
+        }
+        configureAIs();
+    }
+
+    /** Play COUNT games from the current position with random moves,
+     *  using the current seed and number of threads, and report how they
+     *  ended.  Requires COUNT > 0. */
+    private void rollouts(long count) {
+        if (count <= 0) {
+            throw error("number of playouts must be positive");
+        }
+        if (_board.getWinner() != null) {
+            throw error("game is over");
+        }
+        long start = System.currentTimeMillis();
+        Rollout.Stats stats = Rollout.run(_board, count, _seed, _threads);
+        long time = Math.max(1, System.currentTimeMillis() - start);
+        _reporter.msg("%d playouts: Red won %d (%.1f%%), Blue won %d"
+                      + " (%.1f%%), %d unfinished.", count,
+                      stats.wins(RED), 100.0 * stats.wins(RED) / count,
+                      stats.wins(BLUE), 100.0 * stats.wins(BLUE) / count,
+                      stats.wins(WHITE));
+        _reporter.msg("Moves per playout: mean %.1f, deviation %.1f,"
+                      + " min %d, max %d.", stats.meanLength(),
+                      stats.lengthDeviation(), stats.minLength(),
+                      stats.maxLength());
+        _reporter.msg("%d ms (%d playouts/s).", time, count * 1000 / time);
+    }
+
+    /** Find whether the player to move can force a win from the current
+     *  position, expanding at most NODES positions (or any number, if
+     *  NODES is 0) in about MILLIS milliseconds (or any time, if MILLIS
+     *  is 0), and report the result and, for a win, a winning move. */
+    private void solve(long nodes, long millis) {
+        if (nodes < 0 || millis < 0) {
+            throw error("limits must not be negative");
+        }
+        if (_board.getWinner() != null) {
+            throw error("game is over");
+        }
+        Solver solver = new Solver(_tableSize);
+        solver.setLimits(nodes, millis);
+        long start = System.currentTimeMillis();
+        int result = solver.solve(_board);
+        long time = System.currentTimeMillis() - start;
+        String player = _board.whoseMove().toCapitalizedString();
+        switch (result) {
+        case Solver.WIN:
+            _reporter.msg("%s to move wins, starting with %s.", player,
+                          _board.moveString(solver.move()));
+            break;
+        case Solver.LOSS:
+            _reporter.msg("%s to move loses.", player);
+            break;
+        default:
+            _reporter.msg("Result for %s to move not found.", player);
+            break;
+        }
+        _reporter.msg("%d positions in %d ms.", solver.nodes(), time);
+    }
+
     /** Stop any current game and set the board to an empty N x N board
      *  with numMoves() == 0.  Requires 2 <= N <= 10. */
     private void setSize(int n) {
@@ -213,6 +471,7 @@ class Game {
         if (n < 2 || n > 10) {
             throw error("size must be between 2 and 10");
         }
+        stopPondering();
         _board.clear(n);
     }
 
@@ -257,7 +516,11 @@ class Game {
             case "#": case "":
                 break;
             case "auto":
-                setAuto(toSide(parts[1]));
+                if (parts.length > 2) {
+                    setAuto(toSide(parts[1]), parts[2]);
+                } else {
+                    setAuto(toSide(parts[1]));
+                }
                 break;
             case "board":
                 printBoard();
@@ -274,12 +537,21 @@ class Game {
             case "new":
                 clear();
                 break;
+            case "plies":
+                setMaxDepth(toInt(parts[1]));
+                break;
             case "quiet":
                 _verbose = false;
                 break;
+            case "ponder":
+                setPondering(parts[1]);
+                break;
             case "quit": case "q":
                 _exit = 0;
                 break;
+            case "rollouts":
+                rollouts(toLong(parts[1]));
+                break;
             case "seed":
                 setSeed(toLong(parts[1]));
                 break;
@@ -290,6 +562,27 @@ class Game {
             case "size":
                 setSize(toInt(parts[1]));
                 break;
+            case "solve":
+                solve(parts.length > 1 ? toLong(parts[1])
+                      : Defaults.SOLVE_NODES,
+                      parts.length > 2 ? toLong(parts[2])
+                      : Defaults.SOLVE_TIME);
+                break;
+            case "store":
+                setStore(parts[1]);
+                break;
+            case "symmetry":
+                setSymmetry(parts[1]);
+                break;
+            case "table":
+                setTableSize(toInt(parts[1]));
+                break;
+            case "threads":
+                setThreads(toInt(parts[1]));
+                break;
+            case "time":
+                setTimeLimit(toLong(parts[1]));
+                break;
             case "verbose":
                 _verbose = true;
                 break;
@@ -346,6 +639,23 @@ class Game {
      *  AI to which it is supplied.
      */
     private long _seed;
+    /** Memory budget, in megabytes, of each AI's transposition table. */
+    private int _tableSize;
+    /** Depth limit, in moves, of each AI's search. */
+    private int _maxDepth;
+    /** Time allowed to each AI per move, in milliseconds (0 if
+     *  unlimited). */
+    private long _timeLimit;
+    /** Number of threads with which each AI searches. */
+    private int _threads;
+    /** True iff each minimax AI treats symmetric positions as
+     *  equivalent. */
+    private boolean _symmetry;
+    /** Where each minimax AI keeps the results of its searches, or null
+     *  if they are not kept. */
+    private SearchStore _store;
+    /** True iff each minimax AI ponders on its opponent's time. */
+    private boolean _ponder;
     /** When set to a non-negative value, indicates that play should terminate
      *  at the earliest possible point, returning _exit.  When negative,
      *  indicates that the session is not over. */
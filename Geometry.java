@@ -0,0 +1,239 @@
+package jump61;
+
+import java.util.Arrays;
+
+/** Immutable lookup tables describing the squares of an N x N board:
+ *  the capacity of each square (its number of neighbors, which is the
+ *  most spots it can hold without exploding) and the list of its
+ *  neighbors, stored in compressed-row form.  Squares are identified by
+ *  square number, as in Board.  One Geometry is built for each board size
+ *  and shared by every Board of that size.
+ *
+ *  Boards of at most MASK_SQUARES squares also have bit-mask forms of
+ *  these tables, in which bit #N of a long stands for square #N.
+ *
+ *  The symmetries of the board (its rotations and reflections) are
+ *  numbered 0 to SYMMETRIES - 1, with 0 the identity, and given as
+ *  permutations of the square numbers.
+ *
+ *  Finally, a Geometry holds the Zobrist keys used to hash positions of
+ *  its size.  The keys are a fixed function of the size, square, and
+ *  square contents, so hashes agree across runs and processes.
+ *  @author Jake Clayton
+ */
+final class Geometry {
+
+    /** Return the (shared) Geometry for an N x N board. */
+    static Geometry forSize(int N) {
+        if (N >= CACHE.length) {
+            return new Geometry(N);
+        }
+        synchronized (CACHE) {
+            if (CACHE[N] == null) {
+                CACHE[N] = new Geometry(N);
+            }
+            return CACHE[N];
+        }
+    }
+
+    /** Tables for an N x N board. */
+    private Geometry(int N) {
+        _size = N;
+        _capacity = new int[N * N];
+        _start = new int[N * N + 1];
+        _adjacent = new int[4 * N * N];
+        int k;
+        k = 0;
+        for (int n = 0; n < N * N; n += 1) {
+            int r = n / N, c = n % N;
+            _start[n] = k;
+            if (c < N - 1) {
+                _adjacent[k++] = n + 1;
+            }
+            if (r < N - 1) {
+                _adjacent[k++] = n + N;
+            }
+            if (c > 0) {
+                _adjacent[k++] = n - 1;
+            }
+            if (r > 0) {
+                _adjacent[k++] = n - N;
+            }
+            _capacity[n] = k - _start[n];
+        }
+        _start[N * N] = k;
+        _classMasks = new long[MAX_CAPACITY + 1];
+        long fullMask, notLeftMask, notRightMask;
+        fullMask = notLeftMask = notRightMask = 0;
+        if (N * N <= MASK_SQUARES) {
+            for (int n = 0; n < N * N; n += 1) {
+                _classMasks[_capacity[n]] |= 1L << n;
+                if (n % N != 0) {
+                    notLeftMask |= 1L << n;
+                }
+                if (n % N != N - 1) {
+                    notRightMask |= 1L << n;
+                }
+            }
+            fullMask = -1L >>> (MASK_SQUARES - N * N);
+        }
+        _fullMask = fullMask;
+        _notLeftMask = notLeftMask;
+        _notRightMask = notRightMask;
+        _images = new int[SYMMETRIES * N * N];
+        for (int s = 0; s < SYMMETRIES; s += 1) {
+            for (int n = 0; n < N * N; n += 1) {
+                int a = n / N, b = n % N;
+                if ((s & TRANSPOSE) != 0) {
+                    a = n % N;
+                    b = n / N;
+                }
+                if ((s & FLIP_ROWS) != 0) {
+                    a = N - 1 - a;
+                }
+                if ((s & FLIP_COLUMNS) != 0) {
+                    b = N - 1 - b;
+                }
+                _images[s * N * N + n] = a * N + b;
+            }
+        }
+        _sizeKey = mix(N);
+        _zobrist = new long[N * N * CELL_CODES];
+        for (int i = 0; i < _zobrist.length; i += 1) {
+            _zobrist[i] = mix(_sizeKey + i + 1);
+        }
+    }
+
+    /** Return the number of rows and of columns described. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the capacity (number of neighbors) of square #N. */
+    int capacity(int n) {
+        return _capacity[n];
+    }
+
+    /** Return the index in the neighbor list of the first neighbor of
+     *  square #N.  Its neighbors are neighbor(start(N)) through
+     *  neighbor(start(N + 1) - 1). */
+    int start(int n) {
+        return _start[n];
+    }
+
+    /** Return entry K of the neighbor list. */
+    int neighbor(int k) {
+        return _adjacent[k];
+    }
+
+    /** Return a new array containing the neighbors of square #N, in the
+     *  order in which an explosion distributes its spots. */
+    int[] neighbors(int n) {
+        return Arrays.copyOfRange(_adjacent, _start[n], _start[n + 1]);
+    }
+
+    /** Return true iff squares of this size have bit-mask forms. */
+    boolean hasMasks() {
+        return _size * _size <= MASK_SQUARES;
+    }
+
+    /** Return the mask of all squares.  Requires hasMasks(). */
+    long fullMask() {
+        return _fullMask;
+    }
+
+    /** Return the mask of squares whose capacity is CAP.  Requires
+     *  hasMasks(). */
+    long capacityMask(int cap) {
+        return _classMasks[cap];
+    }
+
+    /** Return the mask of squares adjacent to some square in MASK.
+     *  Requires hasMasks(). */
+    long adjacentMask(long mask) {
+        return ((mask & _notRightMask) << 1) | ((mask & _notLeftMask) >>> 1)
+            | ((mask << _size) | (mask >>> _size)) & _fullMask;
+    }
+
+    /** Return the square to which symmetry #S carries square #N. */
+    int image(int s, int n) {
+        return _images[s * _size * _size + n];
+    }
+
+    /** Return the number of the symmetry that undoes symmetry #S. */
+    static int inverse(int s) {
+        boolean oneFlip = ((s & FLIP_ROWS) != 0) != ((s & FLIP_COLUMNS) != 0);
+        if ((s & TRANSPOSE) != 0 && oneFlip) {
+            return s ^ (FLIP_ROWS | FLIP_COLUMNS);
+        }
+        return s;
+    }
+
+    /** Return the hash key of an empty board of my size.  Also
+     *  distinguishes boards of different sizes. */
+    long sizeKey() {
+        return _sizeKey;
+    }
+
+    /** Return the Zobrist key for square #N holding the packed cell CELL
+     *  (as encoded by Board). */
+    long zobrist(int n, int cell) {
+        return _zobrist[n * CELL_CODES + cell];
+    }
+
+    /** Return a well-mixed function of X (the SplitMix64 finalizer). */
+    static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+
+    /** Number of distinct packed cell values that may need keys. */
+    static final int CELL_CODES = 64;
+
+    /** Number of symmetries of a square board. */
+    static final int SYMMETRIES = 8;
+
+    /** Bits of a symmetry number: symmetry #S exchanges rows and columns
+     *  if S has the TRANSPOSE bit, and then reverses the order of the rows
+     *  and of the columns if it has the FLIP_ROWS or FLIP_COLUMNS bit. */
+    private static final int
+        FLIP_ROWS = 1, FLIP_COLUMNS = 2, TRANSPOSE = 4;
+
+    /** Largest number of squares for which masks are provided. */
+    static final int MASK_SQUARES = Long.SIZE;
+
+    /** Largest capacity of any square. */
+    static final int MAX_CAPACITY = 4;
+
+    /** Previously built tables, indexed by size. */
+    private static final Geometry[] CACHE =
+        new Geometry[Defaults.MAX_BOARD_SIZE + 1];
+
+    /** Number of rows and of columns. */
+    private final int _size;
+    /** Capacity of each square. */
+    private final int[] _capacity;
+    /** Start of each square's entries in _adjacent, with a final entry
+     *  marking the end of the list. */
+    private final int[] _start;
+    /** Neighbors of all squares, grouped by square: right, down, left,
+     *  up. */
+    private final int[] _adjacent;
+    /** Images of the squares under each symmetry, indexed by symmetry
+     *  number * (number of squares) + square number. */
+    private final int[] _images;
+    /** Hash key of an empty board. */
+    private final long _sizeKey;
+    /** Zobrist keys, indexed by square number * CELL_CODES + cell. */
+    private final long[] _zobrist;
+    /** Squares of each capacity, indexed by capacity. */
+    private final long[] _classMasks;
+    /** All squares. */
+    private final long _fullMask;
+    /** Squares not in the first column. */
+    private final long _notLeftMask;
+    /** Squares not in the last column. */
+    private final long _notRightMask;
+
+}
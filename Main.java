@@ -4,7 +4,9 @@ import java.io.InputStreamReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import static jump61.Utils.*;
 
@@ -24,7 +26,11 @@ public class Main {
     public static void main(String[] args0) {
         CommandArgs args =
             new CommandArgs("--display{0,1} --strict{0,1} --version{0,1}"
-                            + " --debug=(\\d+){0,1} --log --=(.*){0,}", args0);
+                            + " --debug=(\\d+){0,1} --bench=(\\d+){0,1}"
+                            + " --tablebase=(\\d+){0,1} --book=(\\d+){0,1}"
+                            + " --tournament=(\\d+){0,1}"
+                            + " --sizes=([\\d,]+){0,1}"
+                            + " --log --=(.*){0,}", args0);
 
         if (!args.ok()) {
             usage();
@@ -42,6 +48,75 @@ public class Main {
             Utils.setMessageLevel(args.getInt("--debug"));
         }
 
+        if (args.contains("--bench")) {
+            int plies = args.getInt("--bench");
+            if (plies <= 0 || plies > Defaults.SEARCH_DEPTH) {
+                usage();
+                System.exit(1);
+            }
+            Benchmark.run(plies, System.out);
+            System.exit(0);
+        }
+
+        if (args.contains("--tablebase")) {
+            int size = args.getInt("--tablebase");
+            if (size < 2 || size > Tablebase.MAX_SIZE) {
+                usage();
+                System.exit(1);
+            }
+            try {
+                Tablebase.generate(size,
+                                   Runtime.getRuntime().availableProcessors(),
+                                   Tablebase.file(size), System.out);
+            } catch (IOException excp) {
+                System.err.printf("Could not write %s: %s%n",
+                                  Tablebase.file(size), excp.getMessage());
+                System.exit(1);
+            }
+            System.exit(0);
+        }
+
+        if (args.contains("--book")) {
+            int plies = args.getInt("--book");
+            if (plies <= 0) {
+                usage();
+                System.exit(1);
+            }
+            try {
+                OpeningBook.build(plies, Defaults.BOOK_TIME,
+                                  Runtime.getRuntime().availableProcessors(),
+                                  Paths.get(Defaults.BOOK_FILE), System.out);
+            } catch (IOException excp) {
+                System.err.printf("Could not write %s: %s%n",
+                                  Defaults.BOOK_FILE, excp.getMessage());
+                System.exit(1);
+            }
+            System.exit(0);
+        }
+
+        if (args.contains("--tournament")) {
+            int games = args.getInt("--tournament");
+            if (games <= 0) {
+                usage();
+                System.exit(1);
+            }
+            try {
+                int[] sizes = { Defaults.BOARD_SIZE };
+                if (args.contains("--sizes")) {
+                    sizes = Arrays.stream(args.getFirst("--sizes").split(","))
+                        .mapToInt(Integer::parseInt).toArray();
+                }
+                Tournament.run(args.get("--"), sizes, games,
+                               Runtime.getRuntime().availableProcessors(),
+                               System.out);
+            } catch (IllegalArgumentException excp) {
+                System.err.println(excp.getMessage());
+                usage();
+                System.exit(1);
+            }
+            System.exit(0);
+        }
+
         Game game;
         if (args.contains("--display")) {
             Display display = new Display("Jump61");
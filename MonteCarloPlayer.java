@@ -0,0 +1,456 @@
+package jump61;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static jump61.Utils.*;
+
+/** An automated Player that chooses moves by Monte Carlo tree search.
+ *  Each search repeatedly descends a tree of positions from the current
+ *  one, choosing moves by the UCT rule, adds one new position to the
+ *  tree, finishes the game from there with random moves, and credits the
+ *  result to every position on the way down.  The move chosen is the one
+ *  tried most often.
+ *
+ *  With more than one thread, each thread grows its own tree from the
+ *  current position (root parallelism), and the trees' visit counts are
+ *  summed to choose the move.  The part of each tree below the position
+ *  reached after the opponent's reply is kept for the next search.
+ *  @author Jake Clayton
+ */
+class MonteCarloPlayer extends Player {
+
+    /** A new player of GAME initially COLOR that chooses moves
+     *  automatically.  SEED provides a random-number seed used for
+     *  choosing moves. */
+    MonteCarloPlayer(Game game, Side color, long seed) {
+        super(game, color);
+        _random = new SplittableRandom(seed);
+        _timeLimit = Defaults.MOVE_TIME;
+        _threads = Defaults.SEARCH_THREADS;
+        _searchers = new Searcher[0];
+    }
+
+    /** Limit the time spent choosing each move to about MILLIS
+     *  milliseconds.  If MILLIS is 0, run a fixed number of playouts
+     *  (Defaults.PLAYOUTS) per thread instead, so that the moves chosen
+     *  with one thread depend only on the position and the seed. */
+    void setTimeLimit(long millis) {
+        _timeLimit = millis;
+    }
+
+    /** Search with THREADS threads.  Requires THREADS > 0. */
+    void setThreads(int threads) {
+        assert threads > 0;
+        _threads = threads;
+    }
+
+    /** Gets the board state from the current game and finds and reports a
+     * move, as for getMoveSquare, returning it as a command, or returns the
+     * command that interrupted the search. */
+    @Override
+    String getMove() {
+        int choice = getMoveSquare();
+        if (choice == TranspositionTable.NO_MOVE) {
+            String cmnd = _command;
+            _command = null;
+            return cmnd;
+        }
+        Board board = getBoard();
+        return String.format("%d %d", board.row(choice), board.col(choice));
+    }
+
+    /** Gets the board state from the current game and finds and reports a
+     * move found by searchForMove.  The search is abandoned if a command
+     * other than a move arrives in the meantime (see Game.pollCommand),
+     * in which case I return TranspositionTable.NO_MOVE and keep the
+     * command for getMove. */
+    @Override
+    int getMoveSquare() {
+        if (_command != null) {
+            return TranspositionTable.NO_MOVE;
+        }
+        Board board = getGame().getBoard();
+        assert getSide() == board.whoseMove();
+        assert board.getWinner() == null;
+        _polling = true;
+        int choice = searchForMove(board);
+        _polling = false;
+        if (choice == TranspositionTable.NO_MOVE) {
+            return choice;
+        }
+        getGame().reportMove(board.row(choice), board.col(choice));
+        return choice;
+    }
+
+    /** Return the move chosen for the player to move in POSITION, in
+     *  which the game must not be over, or TranspositionTable.NO_MOVE if
+     *  the search is abandoned (see pollCommand). */
+    int searchForMove(Board position) {
+        if (_searchers.length != _threads) {
+            Searcher[] searchers = new Searcher[_threads];
+            for (int k = 0; k < _threads; k += 1) {
+                searchers[k] = k < _searchers.length ? _searchers[k]
+                    : new Searcher(_random.split());
+            }
+            _searchers = searchers;
+        }
+        _deadline =
+            _timeLimit == 0 ? Long.MAX_VALUE
+            : System.currentTimeMillis() + _timeLimit;
+        long start = System.currentTimeMillis();
+        _nextPoll = start + POLL_INTERVAL;
+        _cancelled = false;
+        for (Searcher searcher : _searchers) {
+            searcher.setPosition(position);
+        }
+        List<Future<?>> running = new ArrayList<>();
+        if (_threads > 1) {
+            if (_pool == null || _poolSize != _threads - 1) {
+                if (_pool != null) {
+                    _pool.shutdown();
+                }
+                _poolSize = _threads - 1;
+                _pool = Executors.newFixedThreadPool(_poolSize, (r) -> {
+                        Thread t = new Thread(r, "jump61-playouts");
+                        t.setDaemon(true);
+                        return t;
+                    });
+            }
+            for (int k = 1; k < _threads; k += 1) {
+                running.add(_pool.submit(_searchers[k]));
+            }
+        }
+        _searchers[0].run();
+        for (Future<?> result : running) {
+            try {
+                result.get();
+            } catch (InterruptedException | ExecutionException excp) {
+                throw new Error("search thread failed", excp);
+            }
+        }
+        if (_cancelled) {
+            return TranspositionTable.NO_MOVE;
+        }
+
+        int squares = position.size() * position.size();
+        long[] visits = new long[squares];
+        long playouts = 0;
+        for (Searcher searcher : _searchers) {
+            searcher.addVisits(visits);
+            playouts += searcher._playouts;
+        }
+        int choice = TranspositionTable.NO_MOVE;
+        for (int n = 0; n < squares; n += 1) {
+            if (position.isLegal(position.whoseMove(), n)
+                && (choice == TranspositionTable.NO_MOVE
+                    || visits[n] > visits[choice])) {
+                choice = n;
+            }
+        }
+        long time = Math.max(1, System.currentTimeMillis() - start);
+        debug(1, "%s: %d playouts in %d ms (%d playouts/s, %d threads)",
+              getSide(), playouts, time, playouts * 1000 / time, _threads);
+        return choice;
+    }
+
+    /** If I am choosing a move for my game (see getMoveSquare) and
+     *  POLL_INTERVAL milliseconds have passed since I last did so at time
+     *  NOW, check for a command other than a move (see Game.pollCommand).
+     *  If there is one, keep it in _command and abandon the search.  Must
+     *  be called only on the thread that called searchForMove. */
+    private void pollCommand(long now) {
+        if (_polling && now >= _nextPoll) {
+            _nextPoll = now + POLL_INTERVAL;
+            String cmnd = getGame().pollCommand();
+            if (cmnd != null) {
+                _command = cmnd;
+                _cancelled = true;
+            }
+        }
+    }
+
+    /** A node of a search tree, standing for the position reached by a
+     *  move. */
+    private static class Node {
+
+        /** A node for the position with hash key KEY, reached by MOVE. */
+        Node(int move, long key) {
+            _move = move;
+            _key = key;
+        }
+
+        /** Square number of the move leading here, or -1 at the root. */
+        private final int _move;
+        /** Board.hashKey of my position. */
+        private final long _key;
+        /** Moves from my position, in random order, once known.  Those
+         *  below _expanded have children. */
+        private int[] _moves;
+        /** Children for _moves[0 .. _expanded-1]. */
+        private Node[] _children;
+        /** Number of children. */
+        private int _expanded;
+        /** Number of playouts through me. */
+        private int _visits;
+        /** Number of those playouts won by the player who moved here. */
+        private int _wins;
+    }
+
+    /** One thread's share of a search: a tree and a board on which to
+     *  descend it and play out games. */
+    private class Searcher implements Runnable {
+
+        /** A Searcher that makes its random choices with RANDOM. */
+        Searcher(SplittableRandom random) {
+            _rand = random;
+            _path = new Node[INITIAL_PATH_SIZE];
+        }
+
+        /** Make POSITION the root of my tree, reusing my previous tree if
+         *  POSITION is the current root or one of its grandchildren. */
+        void setPosition(Board position) {
+            long key = position.hashKey();
+            if (_board == null || _board.size() != position.size()) {
+                _board = new Board(position);
+                _rollout = new Rollout(position.size());
+                _root = null;
+            } else {
+                _board.setPosition(position);
+            }
+            Node root = null;
+            if (_root != null && _root._key == key) {
+                root = _root;
+            } else if (_root != null) {
+                for (int i = 0; i < _root._expanded && root == null; i += 1) {
+                    Node child = _root._children[i];
+                    for (int j = 0; j < child._expanded; j += 1) {
+                        if (child._children[j]._key == key) {
+                            root = child._children[j];
+                            break;
+                        }
+                    }
+                }
+            }
+            _root = root == null ? new Node(-1, key) : root;
+            _nodes = size(_root);
+            _rootSide = position.whoseMove();
+            _playouts = 0;
+        }
+
+        @Override
+        public void run() {
+            int limit =
+                _timeLimit == 0 ? Defaults.PLAYOUTS : Integer.MAX_VALUE;
+            for (int i = 0; i < limit && !_cancelled; i += 1) {
+                if ((i & CLOCK_INTERVAL) == 0) {
+                    long now = System.currentTimeMillis();
+                    if (now >= _deadline) {
+                        break;
+                    }
+                    if (this == _searchers[0]) {
+                        pollCommand(now);
+                    }
+                }
+                iterate();
+                _playouts += 1;
+            }
+        }
+
+        /** Add the number of visits to each child of my root to the
+         *  entry of VISITS for its move. */
+        void addVisits(long[] visits) {
+            for (int i = 0; i < _root._expanded; i += 1) {
+                Node child = _root._children[i];
+                visits[child._move] += child._visits;
+            }
+        }
+
+        /** Descend my tree from the root to a position not yet fully
+         *  expanded, add a child for one of its untried moves (unless the
+         *  tree is full), play out a random game from there, and credit
+         *  the result to the nodes along the way. */
+        private void iterate() {
+            Node node = _root;
+            int depth;
+            depth = 0;
+            _path[0] = node;
+            while (_board.getWinner() == null) {
+                if (node._moves == null) {
+                    node._moves = shuffledMoves(_board);
+                    node._children = new Node[node._moves.length];
+                }
+                if (node._expanded < node._moves.length) {
+                    if (_nodes < MAX_NODES) {
+                        int move = node._moves[node._expanded];
+                        _board.addSpot(_board.whoseMove(), move);
+                        Node child = new Node(move, _board.hashKey());
+                        node._children[node._expanded] = child;
+                        node._expanded += 1;
+                        _nodes += 1;
+                        depth = push(depth, child);
+                    }
+                    break;
+                }
+                node = select(node);
+                _board.addSpot(_board.whoseMove(), node._move);
+                depth = push(depth, node);
+            }
+            Side winner = _rollout.play(_board, _rand);
+            for (int d = depth; d >= 0; d -= 1) {
+                Node n = _path[d];
+                n._visits += 1;
+                Side mover = d % 2 == 1 ? _rootSide : _rootSide.opposite();
+                if (d > 0 && winner == mover) {
+                    n._wins += 1;
+                }
+            }
+            for (int d = 0; d < depth; d += 1) {
+                _board.undo();
+            }
+        }
+
+        /** Put NODE after the DEPTH + 1 nodes on _path, and return the
+         *  new depth (the index of NODE). */
+        private int push(int depth, Node node) {
+            depth += 1;
+            if (depth == _path.length) {
+                _path = Arrays.copyOf(_path, 2 * depth);
+            }
+            _path[depth] = node;
+            return depth;
+        }
+
+        /** Return the child of NODE (which must be fully expanded) with
+         *  the greatest upper confidence bound on its value to the player
+         *  moving there. */
+        private Node select(Node node) {
+            double logVisits = Math.log(node._visits);
+            Node best = null;
+            double bestBound = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < node._expanded; i += 1) {
+                Node child = node._children[i];
+                double bound = (double) child._wins / child._visits
+                    + EXPLORATION * Math.sqrt(logVisits / child._visits);
+                if (bound > bestBound) {
+                    best = child;
+                    bestBound = bound;
+                }
+            }
+            return best;
+        }
+
+        /** Return the legal moves on BOARD, in random order. */
+        private int[] shuffledMoves(Board board) {
+            Side player = board.whoseMove();
+            int squares = board.size() * board.size();
+            int count;
+            count = 0;
+            for (int n = 0; n < squares; n += 1) {
+                if (board.isLegal(player, n)) {
+                    count += 1;
+                }
+            }
+            int[] moves = new int[count];
+            count = 0;
+            for (int n = 0; n < squares; n += 1) {
+                if (board.isLegal(player, n)) {
+                    int k = _rand.nextInt(count + 1);
+                    moves[count] = moves[k];
+                    moves[k] = n;
+                    count += 1;
+                }
+            }
+            return moves;
+        }
+
+        /** Source of random choices. */
+        private final SplittableRandom _rand;
+        /** The position at my root, and the one reached as I descend. */
+        private Board _board;
+        /** Plays out games from the positions reached. */
+        private Rollout _rollout;
+        /** Root of my tree. */
+        private Node _root;
+        /** Side to move at _root. */
+        private Side _rootSide;
+        /** The nodes on the current descent, from _root on. */
+        private Node[] _path;
+        /** Number of nodes in my tree. */
+        private int _nodes;
+        /** Number of playouts in the current search. */
+        private long _playouts;
+    }
+
+    /** Return the number of nodes in the tree rooted at NODE. */
+    private static int size(Node node) {
+        int result;
+        result = 1;
+        for (int i = 0; i < node._expanded; i += 1) {
+            result += size(node._children[i]);
+        }
+        return result;
+    }
+
+    /** Source of seeds for my Searchers. */
+    private final SplittableRandom _random;
+
+    /** Time allowed per move, in milliseconds, or 0 for a fixed number of
+     *  playouts. */
+    private long _timeLimit;
+
+    /** Number of threads to search with. */
+    private int _threads;
+
+    /** Time (as from System.currentTimeMillis) at which the search in
+     *  progress must stop. */
+    private long _deadline;
+
+    /** True iff the search in progress is choosing a move for my game,
+     *  and so checks for commands that abandon it. */
+    private boolean _polling;
+
+    /** Time (as from System.currentTimeMillis) at which the search in
+     *  progress next checks for commands. */
+    private long _nextPoll;
+
+    /** The command that interrupted my last search, if not yet returned
+     *  by getMove, or null if none. */
+    private String _command;
+
+    /** Set to abandon the search in progress. */
+    private volatile boolean _cancelled;
+
+    /** One Searcher per thread, kept between moves. */
+    private Searcher[] _searchers;
+
+    /** Threads for all but the first Searcher, created on first use. */
+    private ExecutorService _pool;
+
+    /** Number of threads in _pool. */
+    private int _poolSize;
+
+    /** Weight of the exploration term in the UCT rule. */
+    private static final double EXPLORATION = 0.4;
+
+    /** Largest number of nodes in each Searcher's tree. */
+    private static final int MAX_NODES = 1 << 20;
+
+    /** Initial length of a Searcher's _path. */
+    private static final int INITIAL_PATH_SIZE = 64;
+
+    /** Interval, in milliseconds, at which a search for my game checks
+     *  for commands. */
+    private static final long POLL_INTERVAL = 50;
+
+    /** Searchers consult the clock whenever the number of playouts has
+     *  all these bits clear. */
+    private static final int CLOCK_INTERVAL = (1 << 4) - 1;
+
+}
@@ -0,0 +1,188 @@
+package jump61;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** A book of moves for the first few plies of games on boards of every
+ *  size, found ahead of time by long searches and kept in a file that
+ *  is mapped into memory read-only, so that every program using it
+ *  shares one copy, outside the Java heap.
+ *
+ *  The file holds, after a header, the hash keys (see Board.hashKey) of
+ *  the positions in the book in increasing order, followed by the move
+ *  for each, as a square number in one byte.  Since hash keys include
+ *  the board size, one book serves all sizes.
+ *
+ *  The book is made by build, which plays out, for each size and each
+ *  side, every line of play in which that side makes book moves and the
+ *  other makes any legal move, up to a given number of plies, searching
+ *  for a move in each position where the former is to move.
+ *  @author Jake Clayton
+ */
+class OpeningBook {
+
+    /** Return the book in Defaults.BOOK_FILE, loaded on first use, or
+     *  null if there is none. */
+    static synchronized OpeningBook get() {
+        if (!_tried) {
+            _tried = true;
+            Path file = Paths.get(Defaults.BOOK_FILE);
+            if (Files.isReadable(file)) {
+                try {
+                    _book = new OpeningBook(file);
+                } catch (IOException excp) {
+                    Utils.debug(1, "could not load %s: %s", file,
+                                excp.getMessage());
+                }
+            }
+        }
+        return _book;
+    }
+
+    /** The book mapped from FILE. */
+    OpeningBook(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException("not an opening book");
+            }
+            _entries = channel.map(FileChannel.MapMode.READ_ONLY,
+                                   0, channel.size());
+        }
+        _size = _entries.getInt(Integer.BYTES);
+        if (_entries.getInt(0) != MAGIC || _size < 0
+            || _entries.capacity()
+               != HEADER_BYTES + (long) _size * (Long.BYTES + 1)) {
+            throw new IOException("not an opening book");
+        }
+    }
+
+    /** Return the number of positions in me. */
+    int size() {
+        return _size;
+    }
+
+    /** Return my move for the player to move in BOARD, or
+     *  TranspositionTable.NO_MOVE if I have none. */
+    int move(Board board) {
+        long key = board.hashKey();
+        int lo = 0, hi = _size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            long k = _entries.getLong(HEADER_BYTES + mid * Long.BYTES);
+            if (k < key) {
+                lo = mid + 1;
+            } else if (k > key) {
+                hi = mid;
+            } else {
+                int move = _entries.get(HEADER_BYTES + _size * Long.BYTES
+                                        + mid);
+                return board.isLegal(board.whoseMove(), move) ? move
+                    : TranspositionTable.NO_MOVE;
+            }
+        }
+        return TranspositionTable.NO_MOVE;
+    }
+
+    /** Make a book covering the first PLIES plies on boards of sizes 2 to
+     *  Defaults.MAX_BOARD_SIZE, allowing each search MILLIS milliseconds
+     *  and THREADS threads, and write it to FILE, reporting progress on
+     *  OUT.  Requires PLIES > 0, MILLIS > 0, and THREADS > 0. */
+    static void build(int plies, long millis, int threads, Path file,
+                      PrintStream out) throws IOException {
+        Game game = new Game((p) -> null, (b) -> { }, new TextReporter(),
+                             false);
+        Map<Long, Integer> moves = new TreeMap<>();
+        for (int size = 2; size <= Defaults.MAX_BOARD_SIZE; size += 1) {
+            long start = System.currentTimeMillis();
+            int before = moves.size();
+            for (Side side : new Side[] { Side.RED, Side.BLUE }) {
+                AI ai = new AI(game, side, size);
+                ai.setTimeLimit(millis);
+                ai.setThreads(threads);
+                addLines(new Board(size), plies, ai, moves);
+            }
+            out.printf("%2dx%-2d  %6d positions  %8d ms%n", size, size,
+                       moves.size() - before,
+                       System.currentTimeMillis() - start);
+        }
+        write(moves, file);
+    }
+
+    /** Add to MOVES the moves found by AI in every position up to PLIES
+     *  plies beyond BOARD, on lines in which AI's side makes the moves in
+     *  MOVES and the other side makes any legal move.  BOARD is unchanged
+     *  on return. */
+    private static void addLines(Board board, int plies, AI ai,
+                                 Map<Long, Integer> moves) {
+        if (plies == 0 || board.getWinner() != null) {
+            return;
+        }
+        Side player = board.whoseMove();
+        if (player == ai.getSide()) {
+            Integer move = moves.get(board.hashKey());
+            if (move == null) {
+                move = ai.searchForMove(board);
+                moves.put(board.hashKey(), move);
+            }
+            board.addSpot(player, move);
+            addLines(board, plies - 1, ai, moves);
+            board.undo();
+        } else {
+            for (int n = 0; n < board.size() * board.size(); n += 1) {
+                if (board.isLegal(player, n)) {
+                    board.addSpot(player, n);
+                    addLines(board, plies - 1, ai, moves);
+                    board.undo();
+                }
+            }
+        }
+    }
+
+    /** Write a book holding MOVES, which maps hash keys in increasing
+     *  order to moves, to FILE. */
+    private static void write(Map<Long, Integer> moves, Path file)
+        throws IOException {
+        try (OutputStream stream = Files.newOutputStream(file,
+                 StandardOpenOption.CREATE,
+                 StandardOpenOption.TRUNCATE_EXISTING,
+                 StandardOpenOption.WRITE);
+             DataOutputStream out =
+                 new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(MAGIC);
+            out.writeInt(moves.size());
+            for (long key : moves.keySet()) {
+                out.writeLong(key);
+            }
+            for (int move : moves.values()) {
+                out.writeByte(move);
+            }
+        }
+    }
+
+    /** Identifies a book file. */
+    private static final int MAGIC = 0x4a363142;
+
+    /** Bytes in a book file before the keys. */
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+
+    /** The book loaded by get, if any. */
+    private static OpeningBook _book;
+    /** True once get has tried to load _book. */
+    private static boolean _tried;
+
+    /** The mapped book file. */
+    private final ByteBuffer _entries;
+    /** Number of positions in the book. */
+    private final int _size;
+}
@@ -36,6 +36,16 @@ abstract class Player {
      *  proper color and that the game is not yet won. */
     abstract String getMove();
 
+    /** Return the number of the square of my next move, or
+     *  TranspositionTable.NO_MOVE if getMove is to be called instead for
+     *  my next move or command.  Lets automated players skip formatting
+     *  moves as commands for the Game to parse.  Assumes, as for getMove,
+     *  that I am of the proper color and that the game is not yet won.
+     *  By default, returns TranspositionTable.NO_MOVE. */
+    int getMoveSquare() {
+        return TranspositionTable.NO_MOVE;
+    }
+
     /** My current color. */
     private Side _color;
     /** The game I'm in. */
@@ -13,6 +13,12 @@ interface Reporter {
     /** Report a move to ROW COL. */
     void announceMove(int row, int col);
 
+    /** Report that PLAYER's search for a move has completed DEPTH moves,
+     *  finding a move to ROW COL, while visiting NODESPERSECOND positions
+     *  per second. */
+    void announceProgress(Side player, int depth, int row, int col,
+                          long nodesPerSecond);
+
     /** Display a message indicated by FORMAT and ARGS, which have
      *  the same meaning as in String.format. */
     void msg(String format, Object... args);
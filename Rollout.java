@@ -0,0 +1,197 @@
+package jump61;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Random playouts: games finished from a given position by choosing
+ *  each move uniformly at random from the legal ones.  A Rollout plays
+ *  them on a private board of its own in playout mode, which records no
+ *  undo history, keeps no hash key or evaluation features, and notifies
+ *  no one.  Once created, a Rollout allocates nothing.
+ *
+ *  The static method run plays many playouts from one position, using
+ *  several threads, and collects statistics on their results.
+ *  Playout #K of a run makes its choices with a generator seeded by a
+ *  fixed function of the run's seed and K, so the results of a run
+ *  depend only on the position, the seed, and the number of playouts,
+ *  and not on the number of threads.
+ *  @author Jake Clayton
+ */
+class Rollout {
+
+    /** Playouts are abandoned, with no winner, after this many moves per
+     *  square. */
+    static final int MOVE_LIMIT = 100;
+
+    /** A Rollout for positions on SIZE x SIZE boards. */
+    Rollout(int size) {
+        _board = new Board(size);
+        _board.setPlayoutMode(true);
+    }
+
+    /** Return the size of the boards I play on. */
+    int size() {
+        return _board.size();
+    }
+
+    /** Finish the game in POSITION, which must be of my size, with random
+     *  moves chosen using RANDOM, leaving POSITION unchanged.  Return the
+     *  winner, or null if the game is still going after MOVE_LIMIT moves
+     *  per square. */
+    Side play(Board position, SplittableRandom random) {
+        Board board = _board;
+        board.setPosition(position);
+        int squares = board.size() * board.size();
+        _length = 0;
+        while (board.getWinner() == null) {
+            if (_length == MOVE_LIMIT * squares) {
+                return null;
+            }
+            Side player = board.whoseMove();
+            int n;
+            do {
+                n = random.nextInt(squares);
+            } while (!board.isLegal(player, n));
+            board.addSpot(player, n);
+            _length += 1;
+        }
+        return board.getWinner();
+    }
+
+    /** Return the number of moves made by my last playout. */
+    int length() {
+        return _length;
+    }
+
+    /** Statistics on a set of playouts. */
+    static class Stats {
+
+        /** Return the number of playouts. */
+        long count() {
+            return _count;
+        }
+
+        /** Return the number of playouts won by SIDE, or, if SIDE is
+         *  WHITE, the number abandoned without a winner. */
+        long wins(Side side) {
+            return _wins[side.ordinal()];
+        }
+
+        /** Return the mean number of moves per playout. */
+        double meanLength() {
+            return _count == 0 ? 0.0 : (double) _totalLength / _count;
+        }
+
+        /** Return the standard deviation of the number of moves per
+         *  playout. */
+        double lengthDeviation() {
+            if (_count == 0) {
+                return 0.0;
+            }
+            double mean = meanLength();
+            return Math.sqrt(Math.max(0.0, (double) _totalSquaredLength
+                                      / _count - mean * mean));
+        }
+
+        /** Return the fewest moves made by any playout. */
+        int minLength() {
+            return _minLength;
+        }
+
+        /** Return the most moves made by any playout. */
+        int maxLength() {
+            return _maxLength;
+        }
+
+        /** Record a playout won by WINNER (null if none) after LENGTH
+         *  moves. */
+        private void add(Side winner, int length) {
+            _count += 1;
+            _wins[winner == null ? 0 : winner.ordinal()] += 1;
+            _totalLength += length;
+            _totalSquaredLength += (long) length * length;
+            _minLength = Math.min(_minLength, length);
+            _maxLength = Math.max(_maxLength, length);
+        }
+
+        /** Add the playouts recorded in OTHER to mine. */
+        private void add(Stats other) {
+            _count += other._count;
+            for (int i = 0; i < _wins.length; i += 1) {
+                _wins[i] += other._wins[i];
+            }
+            _totalLength += other._totalLength;
+            _totalSquaredLength += other._totalSquaredLength;
+            _minLength = Math.min(_minLength, other._minLength);
+            _maxLength = Math.max(_maxLength, other._maxLength);
+        }
+
+        /** Number of playouts. */
+        private long _count;
+        /** Playouts won by each Side, indexed by ordinal; those with no
+         *  winner are counted under WHITE. */
+        private final long[] _wins = new long[Side.values().length];
+        /** Sum of the lengths of the playouts. */
+        private long _totalLength;
+        /** Sum of the squares of the lengths of the playouts. */
+        private long _totalSquaredLength;
+        /** Shortest playout. */
+        private int _minLength = Integer.MAX_VALUE;
+        /** Longest playout. */
+        private int _maxLength;
+    }
+
+    /** Play COUNT random playouts from POSITION, whose game must not be
+     *  over, using THREADS threads, and return statistics on the results.
+     *  Playout #K makes its choices with a generator seeded with
+     *  seed(SEED, K). */
+    static Stats run(Board position, long count, long seed, int threads) {
+        Board start = new Board(position);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Stats>> results = new ArrayList<>();
+            for (int k = 0; k < threads; k += 1) {
+                final int first = k;
+                results.add(pool.submit(() -> {
+                            Board from = new Board(start);
+                            Rollout rollout = new Rollout(from.size());
+                            Stats stats = new Stats();
+                            for (long i = first; i < count; i += threads) {
+                                SplittableRandom random =
+                                    new SplittableRandom(seed(seed, i));
+                                Side winner = rollout.play(from, random);
+                                stats.add(winner, rollout.length());
+                            }
+                            return stats;
+                        }));
+            }
+            Stats total = new Stats();
+            for (Future<Stats> result : results) {
+                total.add(result.get());
+            }
+            return total;
+        } catch (InterruptedException | ExecutionException excp) {
+            throw new Error("playout thread failed", excp);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Return the seed for playout #K of a run with seed SEED.  Seeds are
+     *  mixed, rather than spaced evenly, since SplittableRandom's
+     *  generators seeded a multiple of its own increment apart produce
+     *  the same sequence, shifted. */
+    static long seed(long seed, long k) {
+        return Geometry.mix(Geometry.mix(seed) + k);
+    }
+
+    /** The board on which I play. */
+    private final Board _board;
+    /** Number of moves made by my last playout. */
+    private int _length;
+}
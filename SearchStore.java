@@ -0,0 +1,271 @@
+package jump61;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A record, kept in a file, of the results of completed searches, so
+ *  that they survive from one run of the program to the next and may be
+ *  shared by programs running at once.
+ *
+ *  The file holds a header followed by fixed-length records, each giving
+ *  a position's hash key (see Board.hashKey) and the depth, value (to the
+ *  player to move), and best move found by a search from it.  Records
+ *  are only ever appended, with single writes, so that several programs
+ *  may append to one file.  I hold the deepest result for each position
+ *  in memory, reading the whole file when created and, on each probe,
+ *  any records that other programs have appended since.
+ *
+ *  I hold at most a given number of positions.  When the file has grown
+ *  to COMPACT_RATIO times that number of records, or I hold more
+ *  positions than that, I compact it: I drop the shallowest results
+ *  until within the limit, and replace the file with one holding only
+ *  those kept.  A program still appending to the old file then loses
+ *  its records, which does no harm to a cache.
+ *  @author Jake Clayton
+ */
+class SearchStore {
+
+    /** A store kept in FILE, created if absent, holding at most
+     *  MAXENTRIES > 0 positions. */
+    SearchStore(Path file, int maxEntries) throws IOException {
+        _file = file;
+        _maxEntries = maxEntries;
+        _entries = new HashMap<>();
+        _record = ByteBuffer.allocate(RECORD_BYTES);
+        open();
+    }
+
+    /** Return the file in which I am kept. */
+    Path file() {
+        return _file;
+    }
+
+    /** Return the number of positions I hold. */
+    synchronized int size() {
+        return _entries.size();
+    }
+
+    /** Return the result recorded for the position with hash key KEY, as
+     *  packed by entry, or 0 if there is none. */
+    synchronized long probe(long key) throws IOException {
+        refresh();
+        Long entry = _entries.get(key);
+        return entry == null ? 0 : entry;
+    }
+
+    /** Record that a search from the position with hash key KEY to DEPTH
+     *  moves found the value SCORE and the best move MOVE, unless I hold
+     *  a result at least as deep. */
+    synchronized void record(long key, int depth, int score, int move)
+        throws IOException {
+        refresh();
+        long entry = entry(depth, score, move);
+        if (!add(key, entry)) {
+            return;
+        }
+        _record.clear();
+        _record.putLong(key).putLong(entry).flip();
+        _appender.write(_record);
+        readNew();
+        if (_records >= COMPACT_RATIO * _maxEntries
+            || _entries.size() > _maxEntries) {
+            compact();
+        }
+    }
+
+    /** Release my file. */
+    synchronized void close() throws IOException {
+        _channel.close();
+        _appender.close();
+    }
+
+    /** Return the depth in ENTRY. */
+    static int depth(long entry) {
+        return (int) (entry >>> DEPTH_SHIFT);
+    }
+
+    /** Return the value in ENTRY. */
+    static int score(long entry) {
+        return (int) entry;
+    }
+
+    /** Return the move in ENTRY. */
+    static int move(long entry) {
+        return (int) (entry >>> MOVE_SHIFT & MOVE_MASK) - 1;
+    }
+
+    /** Return the packed form of a result with depth DEPTH > 0, value
+     *  SCORE, and move MOVE (which may be TranspositionTable.NO_MOVE).
+     *  Packed results are never 0. */
+    private static long entry(int depth, int score, int move) {
+        return (long) depth << DEPTH_SHIFT
+            | (long) (move + 1) << MOVE_SHIFT
+            | score & 0xffffffffL;
+    }
+
+    /** Hold ENTRY for KEY unless I hold a result at least as deep,
+     *  returning true iff I do not. */
+    private boolean add(long key, long entry) {
+        Long old = _entries.get(key);
+        if (old != null && depth(old) >= depth(entry)) {
+            return false;
+        }
+        _entries.put(key, entry);
+        return true;
+    }
+
+    /** Open my file, creating it if need be, and read all its records. */
+    private void open() throws IOException {
+        _appender = FileChannel.open(_file, StandardOpenOption.CREATE,
+                                     StandardOpenOption.APPEND);
+        _channel = FileChannel.open(_file, StandardOpenOption.READ);
+        _fileKey = fileKey();
+        _entries.clear();
+        _records = 0;
+        if (_channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(RECORD_BYTES).flip();
+            _appender.write(header);
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            _channel.read(header, 0);
+            if (header.getInt(0) != MAGIC
+                || header.getInt(Integer.BYTES) != RECORD_BYTES) {
+                close();
+                throw new IOException("not a search store");
+            }
+        }
+        _offset = HEADER_BYTES;
+        readNew();
+        if ((_channel.size() - HEADER_BYTES) % RECORD_BYTES != 0) {
+            compact();
+        }
+    }
+
+    /** Read any complete records appended to my file since I last read
+     *  it, or reread the file if another program has replaced it. */
+    private void refresh() throws IOException {
+        if (!_fileKey.equals(fileKey())) {
+            close();
+            open();
+        } else {
+            readNew();
+        }
+    }
+
+    /** Read the complete records in my file beyond _offset. */
+    private void readNew() throws IOException {
+        long end = _channel.size();
+        end -= (end - HEADER_BYTES) % RECORD_BYTES;
+        if (end <= _offset) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - _offset));
+        while (buffer.hasRemaining()
+               && _channel.read(buffer, _offset + buffer.position()) > 0) {
+            continue;
+        }
+        buffer.flip();
+        while (buffer.remaining() >= RECORD_BYTES) {
+            long key = buffer.getLong();
+            long entry = buffer.getLong();
+            if (entry != 0) {
+                add(key, entry);
+            }
+            _records += 1;
+        }
+        _offset = end;
+    }
+
+    /** Drop my shallowest results until I hold at most _maxEntries, and
+     *  replace my file with one holding just the rest. */
+    private void compact() throws IOException {
+        if (_entries.size() > _maxEntries) {
+            List<Map.Entry<Long, Long>> all =
+                new ArrayList<>(_entries.entrySet());
+            all.sort((a, b) -> depth(b.getValue()) - depth(a.getValue()));
+            Map<Long, Long> kept = new HashMap<>();
+            for (Map.Entry<Long, Long> e : all.subList(0, _maxEntries)) {
+                kept.put(e.getKey(), e.getValue());
+            }
+            _entries.clear();
+            _entries.putAll(kept);
+        }
+        Path temp = Files.createTempFile(_file.toAbsolutePath().getParent(),
+                                         _file.getFileName().toString(),
+                                         ".tmp");
+        ByteBuffer buffer =
+            ByteBuffer.allocate(HEADER_BYTES
+                                + _entries.size() * RECORD_BYTES);
+        buffer.putInt(MAGIC).putInt(RECORD_BYTES);
+        for (Map.Entry<Long, Long> e : _entries.entrySet()) {
+            buffer.putLong(e.getKey()).putLong(e.getValue());
+        }
+        buffer.flip();
+        try (FileChannel out = FileChannel.open(temp,
+                                                StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+        Files.move(temp, _file, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        close();
+        open();
+    }
+
+    /** Return an object identifying the file now named _file. */
+    private Object fileKey() throws IOException {
+        BasicFileAttributes attrs =
+            Files.readAttributes(_file, BasicFileAttributes.class);
+        Object key = attrs.fileKey();
+        return key != null ? key : attrs.creationTime();
+    }
+
+    /** Identifies a store file. */
+    private static final int MAGIC = 0x4a363153;
+
+    /** Bytes in the header of a store file. */
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+
+    /** Bytes in each record: the hash key, then the packed result. */
+    private static final int RECORD_BYTES = 2 * Long.BYTES;
+
+    /** A file is compacted when it holds this many records for each
+     *  position it may hold. */
+    private static final int COMPACT_RATIO = 2;
+
+    /** Layout of packed results: the value occupies the low 32 bits, the
+     *  move (plus 1) the next 8, and the depth the rest. */
+    private static final int MOVE_SHIFT = 32, MOVE_MASK = 0xff,
+        DEPTH_SHIFT = 40;
+
+    /** The file in which I am kept. */
+    private final Path _file;
+    /** The greatest number of positions I hold. */
+    private final int _maxEntries;
+    /** Deepest result recorded for each position, indexed by hash key. */
+    private final Map<Long, Long> _entries;
+    /** Buffer for writing a record. */
+    private final ByteBuffer _record;
+    /** Channel open on my file for reading. */
+    private FileChannel _channel;
+    /** Channel open on my file for appending. */
+    private FileChannel _appender;
+    /** Identifies the file on which _channel is open. */
+    private Object _fileKey;
+    /** Length of my file that I have read. */
+    private long _offset;
+    /** Number of records in my file. */
+    private int _records;
+}
@@ -0,0 +1,346 @@
+package jump61;
+
+import java.util.Arrays;
+
+/** A solver that finds whether the player to move in a position can
+ *  force a win, by depth-first proof-number search (df-pn).
+ *
+ *  Each position has a proof number, the least number of unsettled
+ *  positions whose results would have to be found to show that the
+ *  player to move there wins, and a disproof number, likewise for
+ *  showing that it loses.  A position's proof number is the least of
+ *  the disproof numbers of the positions its moves lead to, and its
+ *  disproof number is the sum of their proof numbers.  The search
+ *  repeatedly descends towards the position that most cheaply settles
+ *  the result, with thresholds on both numbers that let it stay in one
+ *  subtree for as long as that subtree remains the most promising.
+ *
+ *  Positions with known numbers are kept in a hash table of fixed size,
+ *  indexed by Board.hashKey, each new entry replacing whatever occupied
+ *  its slot.  Positions that Board.decidedWinner settles are not
+ *  searched further.
+ *
+ *  Because explosions can lose spots (a square already due to explode
+ *  gets none), a position may recur in a game (see Tablebase).  A move
+ *  that returns to a position on the current path is given infinite
+ *  proof and disproof numbers, since a forced win must end the game and
+ *  so cannot rely on the repetition, while repeating may let the player
+ *  avoid losing, and the table's numbers for that position are not
+ *  used in their place.  Nor are positions all of whose moves repeat
+ *  given table entries, since their numbers depend on the path.  Such
+ *  numbers never settle a position either way, so every WIN or LOSS
+ *  found is correct, but a position may be left UNKNOWN because of a
+ *  repetition reached from another path.
+ *
+ *  Entries stay valid from one call of solve to the next, so that work
+ *  done by one call that was cut short is reused by the next.
+ *  @author Jake Clayton
+ */
+class Solver {
+
+    /** Results of solve: the player to move wins, loses, or neither was
+     *  shown within the limits. */
+    static final int WIN = 1, LOSS = -1, UNKNOWN = 0;
+
+    /** A solver whose table occupies about MEGABYTES megabytes (at least
+     *  one slot). */
+    Solver(int megabytes) {
+        long slots = Math.max(1, (long) megabytes * (1 << 20) / SLOT_BYTES);
+        int size = (int) Long.highestOneBit(Math.min(slots,
+                                                     1 << MAX_LOG_SLOTS));
+        _mask = size - 1;
+        _keys = new long[size];
+        _entries = new long[size];
+        _moves = new int[0][];
+        _keysOf = new long[0][];
+        _proofs = new int[0][];
+        _disproofs = new int[0][];
+        _path = new long[0];
+        _maxNodes = Long.MAX_VALUE;
+    }
+
+    /** Stop each search after expanding about NODES positions (or with
+     *  no such limit, if NODES is 0) or after about MILLIS milliseconds
+     *  (or with no time limit, if MILLIS is 0). */
+    void setLimits(long nodes, long millis) {
+        _maxNodes = nodes == 0 ? Long.MAX_VALUE : nodes;
+        _timeLimit = millis;
+    }
+
+    /** Return WIN if the player to move in POSITION can force a win,
+     *  LOSS if the other player can, and UNKNOWN if neither was shown
+     *  within my limits.  POSITION, whose game must not be over, is not
+     *  changed.  After a WIN, move() gives a move that wins. */
+    int solve(Board position) {
+        Board board = new Board(position);
+        assert board.getWinner() == null;
+        _nodes = 0;
+        _stopped = false;
+        _deadline = _timeLimit == 0 ? Long.MAX_VALUE
+            : System.currentTimeMillis() + _timeLimit;
+        long result = search(board, 0, UNLIMITED, UNLIMITED);
+        _move = TranspositionTable.NO_MOVE;
+        if (proof(result) == 0) {
+            for (int i = 0; _move == TranspositionTable.NO_MOVE; i += 1) {
+                if (_disproofs[0][i] == 0) {
+                    _move = _moves[0][i];
+                }
+            }
+            return WIN;
+        } else if (disproof(result) == 0) {
+            return LOSS;
+        } else {
+            return UNKNOWN;
+        }
+    }
+
+    /** Return the winning move found by the last solve that returned
+     *  WIN, as a square number. */
+    int move() {
+        return _move;
+    }
+
+    /** Return the number of positions expanded by the last solve. */
+    long nodes() {
+        return _nodes;
+    }
+
+    /** Search BOARD, DEPTH moves from the position being solved, until
+     *  its proof number reaches THPN or its disproof number reaches THDN
+     *  (or my limits are reached), and return its numbers, as packed by
+     *  entry.  BOARD is unchanged on return.
+     *
+     *  A threshold of UNLIMITED is never reached, so that a search with
+     *  UNLIMITED thresholds continues until it settles BOARD or finds
+     *  that repetitions keep it from settling it.  Such a search whose
+     *  proof number becomes infinite while its disproof number does not
+     *  (as repetitions can cause) goes on trying to disprove it, by
+     *  searching the move with the least positive proof number, also
+     *  without limits. */
+    private long search(Board board, int depth, int thpn, int thdn) {
+        long key = board.hashKey();
+        Side player = board.whoseMove();
+        for (int d = 0; d < depth; d += 1) {
+            if (_path[d] == key) {
+                return entry(INFINITY, INFINITY);
+            }
+        }
+        if (depth > 0) {
+            long entry = probe(key);
+            if (entry != 0
+                && (proof(entry) >= thpn || disproof(entry) >= thdn
+                    || proof(entry) == 0 || disproof(entry) == 0)) {
+                return entry;
+            }
+            Side winner = board.decidedWinner();
+            if (winner != null) {
+                entry = winner == player ? entry(0, INFINITY)
+                    : entry(INFINITY, 0);
+                store(key, entry);
+                return entry;
+            }
+        }
+        _nodes += 1;
+        if (_nodes >= _maxNodes
+            || (_nodes & CLOCK_INTERVAL) == 0
+                && System.currentTimeMillis() >= _deadline) {
+            _stopped = true;
+        }
+        int count = expand(board, depth);
+        _path[depth] = key;
+        int[] moves = _moves[depth];
+        long[] keys = _keysOf[depth];
+        int[] proofs = _proofs[depth];
+        int[] disproofs = _disproofs[depth];
+        int pn, dn;
+        while (true) {
+            int best = 0, second = INFINITY, easiest = 0;
+            pn = INFINITY;
+            dn = 0;
+            for (int i = 0; i < count; i += 1) {
+                if (keys[i] != 0 && proofs[i] != 0 && disproofs[i] != 0
+                    && (proofs[i] < INFINITY || disproofs[i] < INFINITY)) {
+                    long entry = probe(keys[i]);
+                    if (entry != 0) {
+                        proofs[i] = proof(entry);
+                        disproofs[i] = disproof(entry);
+                    }
+                }
+                dn = sum(dn, proofs[i]);
+                if (disproofs[i] < pn) {
+                    second = pn;
+                    pn = disproofs[i];
+                    best = i;
+                } else if (disproofs[i] < second) {
+                    second = disproofs[i];
+                }
+                if (proofs[i] != 0
+                    && (proofs[easiest] == 0
+                        || proofs[i] < proofs[easiest])) {
+                    easiest = i;
+                }
+            }
+            if (pn >= thpn || dn >= thdn || pn == 0 || dn == 0
+                || pn == INFINITY && dn == INFINITY || _stopped) {
+                break;
+            }
+            int childThdn;
+            if (pn == INFINITY) {
+                best = easiest;
+                childThdn = thpn;
+            } else {
+                childThdn =
+                    Math.min(thpn, sum(second, second / EPSILON_DIVISOR + 1));
+            }
+            int childThpn =
+                thdn >= INFINITY ? thdn : thdn - dn + proofs[best];
+            board.addSpot(player, moves[best]);
+            keys[best] = board.hashKey();
+            long result = search(board, depth + 1, childThpn, childThdn);
+            board.undo();
+            proofs[best] = proof(result);
+            disproofs[best] = disproof(result);
+        }
+        long entry = entry(pn, dn);
+        if ((!_stopped || pn == 0 || dn == 0)
+            && (pn < INFINITY || dn < INFINITY)) {
+            store(key, entry);
+        }
+        return entry;
+    }
+
+    /** Fill in the moves from BOARD, DEPTH moves from the position being
+     *  solved, in _moves[DEPTH], and return their number.  Moves that
+     *  explode a square come first.  The positions they lead to are not
+     *  examined until searched, so their hash keys, in _keysOf[DEPTH], are
+     *  0 until then, and their proof and disproof numbers, in
+     *  _proofs[DEPTH] and _disproofs[DEPTH], start at 1. */
+    private int expand(Board board, int depth) {
+        int squares = board.size() * board.size();
+        if (depth == _moves.length) {
+            int levels = 2 * depth + 1;
+            _moves = Arrays.copyOf(_moves, levels);
+            _keysOf = Arrays.copyOf(_keysOf, levels);
+            _proofs = Arrays.copyOf(_proofs, levels);
+            _disproofs = Arrays.copyOf(_disproofs, levels);
+            _path = Arrays.copyOf(_path, levels);
+            for (int d = depth; d < levels; d += 1) {
+                _moves[d] = new int[squares];
+                _keysOf[d] = new long[squares];
+                _proofs[d] = new int[squares];
+                _disproofs[d] = new int[squares];
+            }
+        }
+        int[] moves = _moves[depth];
+        Side player = board.whoseMove();
+        int count = 0;
+        for (int n = 0; n < squares; n += 1) {
+            if (board.isLegal(player, n) && board.critical(n)) {
+                moves[count] = n;
+                count += 1;
+            }
+        }
+        for (int n = 0; n < squares; n += 1) {
+            if (board.isLegal(player, n) && !board.critical(n)) {
+                moves[count] = n;
+                count += 1;
+            }
+        }
+        Arrays.fill(_keysOf[depth], 0, count, 0);
+        Arrays.fill(_proofs[depth], 0, count, 1);
+        Arrays.fill(_disproofs[depth], 0, count, 1);
+        return count;
+    }
+
+    /** Return the entry for the position whose hash is KEY, or 0 if there
+     *  is none. */
+    private long probe(long key) {
+        int i = (int) (key & _mask);
+        return _keys[i] == key ? _entries[i] : 0;
+    }
+
+    /** Record ENTRY for the position whose hash is KEY. */
+    private void store(long key, long entry) {
+        int i = (int) (key & _mask);
+        _keys[i] = key;
+        _entries[i] = entry;
+    }
+
+    /** Return the table entry holding proof number PN and disproof number
+     *  DN.  Entries are never 0, since PN and DN are not both 0. */
+    private static long entry(int pn, int dn) {
+        return (long) pn << Integer.SIZE | dn;
+    }
+
+    /** Return the proof number in ENTRY. */
+    private static int proof(long entry) {
+        return (int) (entry >>> Integer.SIZE);
+    }
+
+    /** Return the disproof number in ENTRY. */
+    private static int disproof(long entry) {
+        return (int) entry;
+    }
+
+    /** Return X + Y, or INFINITY if that is greater. */
+    private static int sum(int x, int y) {
+        return (int) Math.min((long) x + y, INFINITY);
+    }
+
+    /** The proof or disproof number of a position whose result is
+     *  settled the other way. */
+    private static final int INFINITY = 1 << 30;
+
+    /** A threshold that no proof or disproof number reaches. */
+    private static final int UNLIMITED = INFINITY + 1;
+
+    /** The disproof number threshold given to the most promising move is
+     *  that of the next most promising, increased by this fraction of
+     *  itself, so that the search does not switch between the two too
+     *  often. */
+    private static final int EPSILON_DIVISOR = 4;
+
+    /** search consults the clock whenever the number of positions
+     *  expanded has all these bits clear. */
+    private static final int CLOCK_INTERVAL = (1 << 10) - 1;
+
+    /** Bytes occupied by one slot. */
+    private static final int SLOT_BYTES = 2 * Long.BYTES;
+
+    /** Log base 2 of the largest number of slots. */
+    private static final int MAX_LOG_SLOTS = 30;
+
+    /** Hash keys of the positions in the table, indexed by slot. */
+    private final long[] _keys;
+    /** Proof and disproof numbers, packed as by entry, indexed by slot.
+     *  0 denotes an empty slot. */
+    private final long[] _entries;
+    /** Mask selecting a slot number from a hash key. */
+    private final int _mask;
+
+    /** Moves from the positions on the current path, indexed by depth. */
+    private int[][] _moves;
+    /** Hash keys of the positions reached by _moves. */
+    private long[][] _keysOf;
+    /** Proof numbers of the positions reached by _moves. */
+    private int[][] _proofs;
+    /** Disproof numbers of the positions reached by _moves. */
+    private int[][] _disproofs;
+    /** Hash keys of the positions on the current path, indexed by
+     *  depth. */
+    private long[] _path;
+
+    /** Limit on positions expanded per search. */
+    private long _maxNodes;
+    /** Time allowed per search, in milliseconds, or 0 for no limit. */
+    private long _timeLimit;
+    /** Time (as from System.currentTimeMillis) at which the current
+     *  search must stop. */
+    private long _deadline;
+    /** Positions expanded by the current search. */
+    private long _nodes;
+    /** True once the current search has reached one of its limits. */
+    private boolean _stopped;
+    /** Winning move found by the last search. */
+    private int _move;
+}
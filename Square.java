@@ -21,14 +21,13 @@ class Square {
     /** Return a (unique) Square controlled by SIDE with SPOTS spots on it.
      *  We memoize the creation of Squares to save time, since they are
      *  immutable objects.  As a special case, when SPOTS is 0 or SIDE
-     *  is WHITE, returns the value of INITIAL. */
+     *  is WHITE, returns the value of INITIAL.  The memo is filled in
+     *  advance, so that Squares may be requested from several threads
+     *  at once. */
     static Square square(Side side, int spots) {
         if (spots == 0 || side == WHITE) {
             return INITIAL;
         }
-        if (_allSquares[side.ordinal()][spots] == null) {
-            _allSquares[side.ordinal()][spots] = new Square(side, spots);
-        }
         return _allSquares[side.ordinal()][spots];
     }
 
@@ -48,7 +47,15 @@ class Square {
 
     /** Memo table for Squares, allowing spot values up to 9
      *  (probably excessive). */
-    private static Square[][] _allSquares = new Square[3][10];
+    private static final Square[][] _allSquares = new Square[3][10];
+
+    static {
+        for (Side side : new Side[] { RED, BLUE }) {
+            for (int spots = 1; spots < _allSquares[0].length; spots += 1) {
+                _allSquares[side.ordinal()][spots] = new Square(side, spots);
+            }
+        }
+    }
 
     /** The Side occupying this Square. */
     private final Side _side;
@@ -0,0 +1,402 @@
+package jump61;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** A table of the results of perfect play from every position reachable
+ *  on boards of one small size, kept in a file and mapped into memory.
+ *
+ *  Each position has an index, a number in mixed radix with one digit
+ *  per square, and a last binary digit for the side to move.  A square's
+ *  digit is 0 if it is unowned, K if it is red and holds K spots, and
+ *  C + K if it is blue, where C is its capacity.  Every position whose
+ *  squares are all at or below capacity has its own index, so the index
+ *  is perfect.  The file holds, after a header, two bits for each index:
+ *  the result for the player to move, if it is a win or a loss, or 0
+ *  for positions that cannot arise from the starting position or from
+ *  which neither side can force the game to end.
+ *
+ *  The table is computed by generate, first finding the reachable
+ *  positions by a breadth-first search from the starting position, and
+ *  then settling them by retrograde analysis.  Because explosions can
+ *  lose spots (a square already due to explode gets none), positions
+ *  may recur (on 4x4 boards, two moves can restore a position; see also
+ *  Solver), so this proceeds by sweeps over the unsettled positions
+ *  until one settles nothing more.  A position is won once some move
+ *  wins outright or leads to a lost position, and lost once every move
+ *  leads to a won one, so each sweep settles every position whose moves
+ *  the previous sweeps have settled.  Each sweep, like each level of the
+ *  search, divides the positions among several threads.
+ *
+ *  The number of indices for a size is twice the product of 2C + 1 over
+ *  the squares' capacities C: 1250 for 2x2 and about 27 million for 3x3,
+ *  but about 4.7 * 10^13 for 4x4, so tables cover sizes up to MAX_SIZE.
+ *  @author Jake Clayton
+ */
+class Tablebase {
+
+    /** Results from value: the player to move wins, loses, or the
+     *  position is not in the table. */
+    static final int WIN = 1, LOSS = -1, UNKNOWN = 0;
+
+    /** Largest board size for which a table can be made. */
+    static final int MAX_SIZE = 3;
+
+    /** Return the table for SIZE x SIZE boards, loaded from file(SIZE) on
+     *  first use, or null if there is none. */
+    static synchronized Tablebase forSize(int size) {
+        if (size < 2 || size > MAX_SIZE) {
+            return null;
+        }
+        if (!_tried[size]) {
+            _tried[size] = true;
+            Path file = file(size);
+            if (Files.isReadable(file)) {
+                try {
+                    _tables[size] = new Tablebase(size, file);
+                } catch (IOException excp) {
+                    Utils.debug(1, "could not load %s: %s", file,
+                                excp.getMessage());
+                }
+            }
+        }
+        return _tables[size];
+    }
+
+    /** Return the file that holds the table for SIZE x SIZE boards. */
+    static Path file(int size) {
+        return Paths.get(String.format(Defaults.TABLEBASE_FILE, size));
+    }
+
+    /** The table for SIZE x SIZE boards mapped from FILE. */
+    Tablebase(int size, Path file) throws IOException {
+        _size = size;
+        _radix = radices(size);
+        long count = count(_radix);
+        try (FileChannel channel = FileChannel.open(file)) {
+            if (channel.size() != HEADER_BYTES + (count + 3) / 4) {
+                throw new IOException("wrong length");
+            }
+            _values = channel.map(FileChannel.MapMode.READ_ONLY,
+                                  0, channel.size());
+        }
+        if (_values.getInt(0) != MAGIC
+            || _values.getInt(Integer.BYTES) != size) {
+            throw new IOException("not a table for this size");
+        }
+    }
+
+    /** Return WIN if the player to move in BOARD, a position of my size
+     *  whose game is not over, wins with perfect play, LOSS if the player
+     *  loses, and UNKNOWN if my table does not say. */
+    int value(Board board) {
+        assert board.size() == _size;
+        int index = index(board, _radix);
+        if (index < 0) {
+            return UNKNOWN;
+        }
+        int code =
+            _values.get(HEADER_BYTES + (index >>> 2)) >>> 2 * (index & 3)
+            & CODE_MASK;
+        return code == WIN_CODE ? WIN : code == LOSS_CODE ? LOSS : UNKNOWN;
+    }
+
+    /** Compute the table for SIZE x SIZE boards, using THREADS threads,
+     *  and write it to FILE, reporting progress on OUT.  Requires
+     *  2 <= SIZE <= MAX_SIZE. */
+    static void generate(int size, int threads, Path file, PrintStream out)
+        throws IOException {
+        assert 2 <= size && size <= MAX_SIZE;
+        int[] radix = radices(size);
+        int count = (int) count(radix);
+        AtomicLongArray reached = new AtomicLongArray((count + 63) / 64);
+        byte[] codes = new byte[count];
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long startTime = System.currentTimeMillis();
+        try {
+            List<int[]> levels = new ArrayList<>();
+            int[] level = { index(new Board(size), radix) };
+            mark(reached, level[0]);
+            while (level.length > 0) {
+                levels.add(0, level);
+                int[] from = level;
+                level = concat(inParallel(pool, threads, from.length,
+                                          (lo, hi) -> expand(size, radix,
+                                                             from, lo, hi,
+                                                             reached)));
+            }
+            int[] positions = concat(levels);
+            out.printf("%dx%d: %d positions, reachable within %d moves"
+                       + " (%d ms)%n", size, size, positions.length,
+                       levels.size() - 1,
+                       System.currentTimeMillis() - startTime);
+            int sweeps, settled, unsettled;
+            sweeps = settled = 0;
+            do {
+                sweeps += 1;
+                unsettled = positions.length - settled;
+                settled += inParallel(pool, threads, positions.length,
+                                      (lo, hi) -> settle(size, radix,
+                                                         positions, lo, hi,
+                                                         codes))
+                    .stream().mapToInt((k) -> k).sum();
+            } while (positions.length - settled < unsettled);
+            out.printf("%dx%d: first player %s; %d positions unsettled"
+                       + " after %d sweeps (%d ms)%n", size, size,
+                       codes[positions[positions.length - 1]] == WIN_CODE
+                       ? "wins" : "loses", unsettled, sweeps,
+                       System.currentTimeMillis() - startTime);
+        } finally {
+            pool.shutdown();
+        }
+        write(size, codes, file);
+    }
+
+    /** Return the positions reached by one move from positions
+     *  FROM[LO .. HI-1] on SIZE x SIZE boards, with radices RADIX, whose
+     *  games are not then over and which are not yet marked in REACHED,
+     *  marking them. */
+    private static int[] expand(int size, int[] radix, int[] from,
+                                int lo, int hi, AtomicLongArray reached) {
+        Board board = new Board(size);
+        int[] found = new int[Math.max(1, hi - lo)];
+        int count = 0;
+        for (int i = lo; i < hi; i += 1) {
+            decode(from[i], radix, board);
+            Side player = board.whoseMove();
+            for (int n = 0; n < size * size; n += 1) {
+                if (!board.isLegal(player, n)) {
+                    continue;
+                }
+                board.addSpot(player, n);
+                if (board.getWinner() == null) {
+                    int index = index(board, radix);
+                    if (mark(reached, index)) {
+                        if (count == found.length) {
+                            found = Arrays.copyOf(found, 2 * count);
+                        }
+                        found[count] = index;
+                        count += 1;
+                    }
+                }
+                board.undo();
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /** Set CODES for those of positions POSITIONS[LO .. HI-1] on SIZE x
+     *  SIZE boards, with radices RADIX, that CODES shows to be won or
+     *  lost, and return their number.  Skips positions already
+     *  settled. */
+    private static int settle(int size, int[] radix, int[] positions,
+                              int lo, int hi, byte[] codes) {
+        Board board = new Board(size);
+        int settled = 0;
+        for (int i = lo; i < hi; i += 1) {
+            if (codes[positions[i]] != 0) {
+                continue;
+            }
+            decode(positions[i], radix, board);
+            Side player = board.whoseMove();
+            byte code = LOSS_CODE;
+            for (int n = 0; n < size * size && code != WIN_CODE; n += 1) {
+                if (board.isLegal(player, n)) {
+                    board.addSpot(player, n);
+                    if (board.getWinner() == player) {
+                        code = WIN_CODE;
+                    } else if (codes[index(board, radix)] == LOSS_CODE) {
+                        code = WIN_CODE;
+                    } else if (codes[index(board, radix)] != WIN_CODE) {
+                        code = 0;
+                    }
+                    board.undo();
+                }
+            }
+            if (code != 0) {
+                codes[positions[i]] = code;
+                settled += 1;
+            }
+        }
+        return settled;
+    }
+
+    /** Write the table for SIZE x SIZE boards, whose positions have codes
+     *  CODES, to FILE. */
+    private static void write(int size, byte[] codes, Path file)
+        throws IOException {
+        try (OutputStream stream = Files.newOutputStream(file,
+                 StandardOpenOption.CREATE,
+                 StandardOpenOption.TRUNCATE_EXISTING,
+                 StandardOpenOption.WRITE);
+             DataOutputStream out =
+                 new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(MAGIC);
+            out.writeInt(size);
+            for (int i = 0; i < codes.length; i += 4) {
+                int packed = 0;
+                for (int k = 0; k < 4 && i + k < codes.length; k += 1) {
+                    packed |= codes[i + k] << 2 * k;
+                }
+                out.writeByte(packed);
+            }
+        }
+    }
+
+    /** A task over a range of positions. */
+    private interface RangeTask<T> {
+        /** Process positions LO .. HI-1, returning the result. */
+        T apply(int lo, int hi);
+    }
+
+    /** Run TASK over 0 .. COUNT-1, divided into pieces among THREADS
+     *  threads of POOL, and return the results of the pieces in order. */
+    private static <T> List<T> inParallel(ExecutorService pool, int threads,
+                                          int count, RangeTask<T> task) {
+        int pieces = Math.min(count, threads * PIECES_PER_THREAD);
+        List<Future<T>> futures = new ArrayList<>();
+        for (int k = 0; k < pieces; k += 1) {
+            int lo = (int) ((long) count * k / pieces),
+                hi = (int) ((long) count * (k + 1) / pieces);
+            futures.add(pool.submit(() -> task.apply(lo, hi)));
+        }
+        List<T> results = new ArrayList<>();
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException | ExecutionException excp) {
+            throw new Error("table generator thread failed", excp);
+        }
+        return results;
+    }
+
+    /** Return the concatenation of PARTS. */
+    private static int[] concat(List<int[]> parts) {
+        int[] result =
+            new int[parts.stream().mapToInt((p) -> p.length).sum()];
+        int k = 0;
+        for (int[] part : parts) {
+            System.arraycopy(part, 0, result, k, part.length);
+            k += part.length;
+        }
+        return result;
+    }
+
+    /** Mark INDEX in REACHED, returning true iff it was not already
+     *  marked. */
+    private static boolean mark(AtomicLongArray reached, int index) {
+        long bit = 1L << index;
+        while (true) {
+            long word = reached.get(index >>> 6);
+            if ((word & bit) != 0) {
+                return false;
+            }
+            if (reached.compareAndSet(index >>> 6, word, word | bit)) {
+                return true;
+            }
+        }
+    }
+
+    /** Return the radix of each square's digit in the index of a
+     *  position on a SIZE x SIZE board. */
+    private static int[] radices(int size) {
+        Geometry geometry = Geometry.forSize(size);
+        int[] radix = new int[size * size];
+        for (int n = 0; n < radix.length; n += 1) {
+            radix[n] = 2 * geometry.capacity(n) + 1;
+        }
+        return radix;
+    }
+
+    /** Return the number of indices with radices RADIX. */
+    private static long count(int[] radix) {
+        long count = 2;
+        for (int r : radix) {
+            count *= r;
+        }
+        return count;
+    }
+
+    /** Return the index of BOARD with radices RADIX, or -1 if some square
+     *  is over capacity. */
+    private static int index(Board board, int[] radix) {
+        int index = 0;
+        for (int n = radix.length - 1; n >= 0; n -= 1) {
+            Square sq = board.get(n);
+            int cap = radix[n] / 2, spots = sq.getSpots();
+            if (sq.getSide() == Side.WHITE) {
+                spots = 0;
+            } else if (spots > cap) {
+                return -1;
+            } else if (sq.getSide() == Side.BLUE) {
+                spots += cap;
+            }
+            index = index * radix[n] + spots;
+        }
+        return 2 * index + (board.whoseMove() == Side.BLUE ? 1 : 0);
+    }
+
+    /** Set BOARD to the position with index INDEX under radices RADIX,
+     *  discarding its undo history. */
+    private static void decode(int index, int[] radix, Board board) {
+        int size = board.size();
+        board.setWhoseMove((index & 1) == 0 ? Side.RED : Side.BLUE);
+        index >>>= 1;
+        for (int n = 0; n < radix.length; n += 1) {
+            int cap = radix[n] / 2, digit = index % radix[n];
+            index /= radix[n];
+            int r = n / size + 1, c = n % size + 1;
+            if (digit == 0) {
+                board.set(r, c, 1, Side.WHITE);
+            } else if (digit <= cap) {
+                board.set(r, c, digit, Side.RED);
+            } else {
+                board.set(r, c, digit - cap, Side.BLUE);
+            }
+        }
+    }
+
+    /** Identifies a table file. */
+    private static final int MAGIC = 0x4a363154;
+
+    /** Bytes in a table file before the codes. */
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+
+    /** Two-bit codes of the positions in a table.  Positions not won or
+     *  lost have code 0. */
+    private static final byte WIN_CODE = 1, LOSS_CODE = 2, CODE_MASK = 3;
+
+    /** Number of pieces into which work is divided for each thread, so
+     *  that threads finishing early can take up more. */
+    private static final int PIECES_PER_THREAD = 4;
+
+    /** Tables loaded so far, indexed by size. */
+    private static final Tablebase[] _tables = new Tablebase[MAX_SIZE + 1];
+    /** True for the sizes whose table forSize has tried to load. */
+    private static final boolean[] _tried = new boolean[MAX_SIZE + 1];
+
+    /** Size of the boards I cover. */
+    private final int _size;
+    /** Radix of each square's digit in position indices. */
+    private final int[] _radix;
+    /** The mapped table file. */
+    private final ByteBuffer _values;
+}
@@ -17,6 +17,11 @@ class TextReporter implements Reporter {
         msg("* %d %d.", row, col);
     }
 
+    @Override
+    public void announceProgress(Side player, int depth, int row, int col,
+                                 long nodesPerSecond) {
+    }
+
     @Override
     public void msg(String format, Object... args) {
         System.out.printf(format, args);
@@ -0,0 +1,307 @@
+package jump61;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.ToIntFunction;
+
+/** A headless match between automated players, for comparing their
+ *  settings: each pair of players plays a given number of games on each
+ *  of a list of board sizes, taking Red and Blue alternately, with the
+ *  games running at once on a pool of threads.  Since players with no
+ *  time limit choose their moves the same way each time, each game
+ *  starts with OPENING_PLIES random moves, the same ones for the two
+ *  games of each pair in which the players swap colors.  Each player
+ *  searches with a single thread, so that games do not compete for more
+ *  threads than the pool holds, but timed searches are still slowed when
+ *  the pool has more threads than there are processors.  Since play can
+ *  go on forever, a game is drawn when it reaches MOVE_LIMIT moves per
+ *  square without a winner, and counts as half a win for each player.
+ *
+ *  Players are described by strings of the form ENGINE[:PLIES[:MS]],
+ *  where ENGINE is "minimax" (an AI) or "mcts" (a MonteCarloPlayer),
+ *  PLIES is the AI's depth limit, and MS the time allowed per move, as
+ *  for the plies and time commands; omitted or empty parts take their
+ *  defaults.
+ *  @author Jake Clayton
+ */
+class Tournament {
+
+    /** Play GAMES > 0 games between each pair of the players described
+     *  by SPECS (at least two), on each board size in SIZES, on THREADS > 0
+     *  threads, reporting win rates, Elo differences, games per second,
+     *  and move times on OUT.  Throws IllegalArgumentException if a
+     *  description or size is invalid. */
+    static void run(List<String> specs, int[] sizes, int games, int threads,
+                    PrintStream out) {
+        List<Entrant> entrants = new ArrayList<>();
+        for (String spec : specs) {
+            entrants.add(new Entrant(spec));
+        }
+        if (entrants.size() < 2) {
+            throw new IllegalArgumentException("need at least two players");
+        }
+        for (int size : sizes) {
+            if (size < 2 || size > Defaults.MAX_BOARD_SIZE) {
+                throw new IllegalArgumentException(
+                    String.format("invalid board size: %d", size));
+            }
+        }
+        Game game = new Game((p) -> null, (b) -> { }, new TextReporter(),
+                             false);
+        ExecutorService pool = Executors.newFixedThreadPool(threads, (r) -> {
+                Thread t = new Thread(r, "jump61-tournament");
+                t.setDaemon(true);
+                return t;
+            });
+        List<Pairing> pairings = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        long seed = 0;
+        for (int a = 0; a < entrants.size(); a += 1) {
+            for (int b = a + 1; b < entrants.size(); b += 1) {
+                for (int size : sizes) {
+                    Pairing pairing = new Pairing(a, b, size);
+                    for (int k = 0; k < games; k += 1) {
+                        Entrant red = entrants.get(k % 2 == 0 ? a : b),
+                            blue = entrants.get(k % 2 == 0 ? b : a);
+                        long gameSeed = seed;
+                        pairing._games.add(pool.submit(
+                            () -> play(game, red, blue, size, gameSeed)));
+                        if (k % 2 == 1) {
+                            seed += 1;
+                        }
+                    }
+                    pairings.add(pairing);
+                }
+            }
+        }
+        out.printf("%d players, %d games per pair and size, %d threads%n",
+                   entrants.size(), games, threads);
+        int total;
+        total = 0;
+        for (Pairing pairing : pairings) {
+            Entrant a = entrants.get(pairing._a),
+                b = entrants.get(pairing._b);
+            int wins, draws;
+            wins = draws = 0;
+            for (int k = 0; k < pairing._games.size(); k += 1) {
+                Result result;
+                try {
+                    result = pairing._games.get(k).get();
+                } catch (InterruptedException | ExecutionException excp) {
+                    throw new Error("tournament game failed", excp);
+                }
+                boolean aRed = k % 2 == 0;
+                if (result._winner == null) {
+                    draws += 1;
+                } else if ((result._winner == Side.RED) == aRed) {
+                    wins += 1;
+                }
+                (aRed ? a : b).add(result.points(Side.RED),
+                                   result._moves[0], result._time[0]);
+                (aRed ? b : a).add(result.points(Side.BLUE),
+                                   result._moves[1], result._time[1]);
+                total += 1;
+            }
+            int n = pairing._games.size();
+            double score = (wins + draws / 2.0) / n;
+            double z2 = Z95 * Z95 / n;
+            double center = (score + z2 / 2) / (1 + z2);
+            double error = Z95 / (1 + z2)
+                * Math.sqrt(score * (1 - score) / n + z2 / (4 * n));
+            out.printf("%2dx%-2d  %-16s %4d-%d-%-4d %-16s  %5.1f%%  "
+                       + "Elo %+5.0f [%+5.0f, %+5.0f]%n",
+                       pairing._size, pairing._size, a._spec, wins,
+                       draws, n - wins - draws, b._spec, 100 * score,
+                       elo(score, n),
+                       elo(center - error, n), elo(center + error, n));
+        }
+        long time = Math.max(1, System.currentTimeMillis() - start);
+        pool.shutdown();
+        out.println();
+        for (Entrant e : entrants) {
+            out.printf("%-16s  %6d games  %5.1f%% score  %8.1f ms/move%n",
+                       e._spec, e._games, 100.0 * e._points / e._games,
+                       (double) e._time / NANOS_PER_MILLI
+                       / Math.max(1, e._moves));
+        }
+        out.printf("%d games in %d ms (%.2f games/s)%n", total, time,
+                   total * 1000.0 / time);
+    }
+
+    /** Return the difference in Elo rating at which a player's expected
+     *  score against another is SCORE, after limiting SCORE to within
+     *  1 / (2 * GAMES) of 0 and 1, so that the result is finite. */
+    static double elo(double score, int games) {
+        double margin = 0.5 / games;
+        score = Math.max(margin, Math.min(1 - margin, score));
+        return -400 * Math.log10(1 / score - 1);
+    }
+
+    /** Play a game on a SIZE x SIZE board in GAME between RED and BLUE,
+     *  with the opening moves and the players' random numbers seeded from
+     *  SEED. */
+    private static Result play(Game game, Entrant red, Entrant blue,
+                               int size, long seed) {
+        Board board = new Board(size);
+        Random random = new Random(seed);
+        for (int i = 0; i < OPENING_PLIES && board.getWinner() == null;
+             i += 1) {
+            int n;
+            do {
+                n = random.nextInt(size * size);
+            } while (!board.isLegal(board.whoseMove(), n));
+            board.addSpot(board.whoseMove(), n);
+        }
+        List<ToIntFunction<Board>> players = new ArrayList<>();
+        players.add(red.player(game, Side.RED, random.nextLong()));
+        players.add(blue.player(game, Side.BLUE, random.nextLong()));
+        Result result = new Result();
+        int limit = MOVE_LIMIT * size * size;
+        while (board.getWinner() == null
+               && result._moves[0] + result._moves[1] < limit) {
+            int k = board.whoseMove() == Side.RED ? 0 : 1;
+            long start = System.nanoTime();
+            int move = players.get(k).applyAsInt(board);
+            result._time[k] += System.nanoTime() - start;
+            result._moves[k] += 1;
+            board.addSpot(board.whoseMove(), move);
+        }
+        result._winner = board.getWinner();
+        return result;
+    }
+
+    /** A player in the tournament, with its totals so far. */
+    private static class Entrant {
+
+        /** The player described by SPEC (see Tournament). */
+        Entrant(String spec) {
+            _spec = spec;
+            String[] parts = spec.split(":", -1);
+            if (parts.length > 3
+                || !parts[0].equals("minimax") && !parts[0].equals("mcts")) {
+                throw new IllegalArgumentException(
+                    String.format("invalid player: %s", spec));
+            }
+            _engine = parts[0];
+            try {
+                _plies = parts.length < 2 || parts[1].isEmpty()
+                    ? Defaults.SEARCH_DEPTH : Integer.parseInt(parts[1]);
+                _millis = parts.length < 3 || parts[2].isEmpty()
+                    ? Defaults.MOVE_TIME : Long.parseLong(parts[2]);
+            } catch (NumberFormatException excp) {
+                throw new IllegalArgumentException(
+                    String.format("invalid player: %s", spec));
+            }
+            if (_plies <= 0 || _plies > Defaults.SEARCH_DEPTH
+                || _millis < 0) {
+                throw new IllegalArgumentException(
+                    String.format("invalid player: %s", spec));
+            }
+        }
+
+        /** Return a function giving my move in a position, as a fresh
+         *  player of SIDE in GAME seeded with SEED. */
+        ToIntFunction<Board> player(Game game, Side side, long seed) {
+            if (_engine.equals("mcts")) {
+                MonteCarloPlayer mcts = new MonteCarloPlayer(game, side, seed);
+                mcts.setTimeLimit(_millis);
+                mcts.setThreads(1);
+                return mcts::searchForMove;
+            } else {
+                AI ai = new AI(game, side, seed);
+                ai.setTableSize(TABLE_SIZE);
+                ai.setMaxDepth(_plies);
+                ai.setTimeLimit(_millis);
+                ai.setThreads(1);
+                return ai::searchForMove;
+            }
+        }
+
+        /** Add a game in which I scored POINTS (1 for a win, 1/2 for a
+         *  draw) and made MOVES moves taking TIME nanoseconds in all, to
+         *  my totals. */
+        void add(double points, int moves, long time) {
+            _games += 1;
+            _points += points;
+            _moves += moves;
+            _time += time;
+        }
+
+        /** My description. */
+        private final String _spec;
+        /** "minimax" or "mcts". */
+        private final String _engine;
+        /** Depth limit of my searches. */
+        private final int _plies;
+        /** Time allowed per move, in milliseconds (0 if unlimited). */
+        private final long _millis;
+        /** Games played so far. */
+        private int _games;
+        /** Points scored so far. */
+        private double _points;
+        /** Moves made, and the nanoseconds taken to make them, so far. */
+        private long _moves, _time;
+    }
+
+    /** The games between two players on one board size. */
+    private static class Pairing {
+
+        /** The games between the players numbered A and B on SIZE x SIZE
+         *  boards. */
+        Pairing(int a, int b, int size) {
+            _a = a;
+            _b = b;
+            _size = size;
+        }
+
+        /** The players' numbers. */
+        private final int _a, _b;
+        /** The board size. */
+        private final int _size;
+        /** The games, in which player _a is Red in the even-numbered
+         *  ones. */
+        private final List<Future<Result>> _games = new ArrayList<>();
+    }
+
+    /** The outcome of one game. */
+    private static class Result {
+
+        /** Return the points scored by SIDE: 1 for a win, 0 for a loss,
+         *  and 1/2 for a draw. */
+        double points(Side side) {
+            return _winner == null ? 0.5 : _winner == side ? 1 : 0;
+        }
+
+        /** The winner, or null if the game was drawn. */
+        private Side _winner;
+        /** Moves made by Red and Blue. */
+        private final int[] _moves = new int[2];
+        /** Time taken by Red and Blue, in nanoseconds. */
+        private final long[] _time = new long[2];
+    }
+
+    /** Memory budget, in megabytes, of each AI's transposition table.
+     *  Smaller than usual, since many games run at once. */
+    private static final int TABLE_SIZE = 4;
+
+    /** Moves allowed per square of the board before a game is drawn. */
+    static final int MOVE_LIMIT = 50;
+
+    /** Number of random moves with which each game starts. */
+    static final int OPENING_PLIES = 2;
+
+    /** Multiple of the standard error giving a 95% confidence
+     *  interval (by Wilson's method, which stays sensible when one
+     *  player wins every game). */
+    private static final double Z95 = 1.96;
+
+    /** Nanoseconds in a millisecond. */
+    private static final long NANOS_PER_MILLI = 1_000_000;
+
+}
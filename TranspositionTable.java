@@ -0,0 +1,135 @@
+package jump61;
+
+import java.util.Arrays;
+
+/** A fixed-size hash table of search results, indexed by Board.hashKey.
+ *  Each entry records the depth to which a position was searched, the
+ *  value found, whether that value is exact or only a bound, and the best
+ *  move found.  The number of slots is a power of two; when two positions
+ *  compete for a slot, the result of the deeper search (or of the more
+ *  recent search, when the slot's entry was made by an earlier one) is
+ *  kept.
+ *
+ *  Entries are returned by probe as single longs, which are decoded by
+ *  the static methods score, move, depth, and bound.
+ *
+ *  A table may be shared by several searching threads without locking.
+ *  Each slot stores its hash key XOR-ed with its entry, so that a slot
+ *  whose key and entry were written by different threads at once fails
+ *  to match any probe, rather than returning another position's entry.
+ *  @author Jake Clayton
+ */
+class TranspositionTable {
+
+    /** Bound type: the stored score is the exact value. */
+    static final int EXACT = 1;
+    /** Bound type: the true value is at least the stored score. */
+    static final int LOWER = 2;
+    /** Bound type: the true value is at most the stored score. */
+    static final int UPPER = 3;
+
+    /** Stored move denoting that no move is known. */
+    static final int NO_MOVE = -1;
+
+    /** A table occupying about MEGABYTES megabytes (at least one slot). */
+    TranspositionTable(int megabytes) {
+        long slots = Math.max(1, (long) megabytes * (1 << 20) / SLOT_BYTES);
+        _mask = Long.highestOneBit(Math.min(slots, 1 << MAX_LOG_SLOTS)) - 1;
+        _keys = new long[(int) _mask + 1];
+        _entries = new long[(int) _mask + 1];
+    }
+
+    /** Return the number of slots in this table. */
+    int slots() {
+        return _keys.length;
+    }
+
+    /** Remove all entries. */
+    void clear() {
+        Arrays.fill(_keys, 0);
+        Arrays.fill(_entries, 0);
+    }
+
+    /** Start a new search, so that entries from earlier ones may be
+     *  replaced in preference to those that follow. */
+    void newSearch() {
+        _age = (_age + 1) & AGE_MASK;
+    }
+
+    /** Return the entry for the position whose hash is KEY, or 0 if there
+     *  is none. */
+    long probe(long key) {
+        int i = (int) (key & _mask);
+        long entry = _entries[i];
+        return (_keys[i] ^ entry) == key ? entry : 0;
+    }
+
+    /** Record that the position whose hash is KEY, searched to DEPTH, has
+     *  value SCORE, qualified by BOUND (EXACT, LOWER, or UPPER), and that
+     *  its best move is MOVE (or NO_MOVE). */
+    void store(long key, int depth, int bound, int score, int move) {
+        int i = (int) (key & _mask);
+        long old = _entries[i];
+        if (old != 0 && (_keys[i] ^ old) != key && age(old) == _age
+            && depth(old) > depth) {
+            return;
+        }
+        long entry = (score & 0xffffffffL)
+            | (long) (move & MOVE_MASK) << MOVE_SHIFT
+            | (long) Math.min(depth, DEPTH_MASK) << DEPTH_SHIFT
+            | (long) bound << BOUND_SHIFT
+            | (long) _age << AGE_SHIFT;
+        _keys[i] = key ^ entry;
+        _entries[i] = entry;
+    }
+
+    /** Return the score recorded in ENTRY. */
+    static int score(long entry) {
+        return (int) entry;
+    }
+
+    /** Return the best move recorded in ENTRY, or NO_MOVE. */
+    static int move(long entry) {
+        int move = (int) (entry >>> MOVE_SHIFT) & MOVE_MASK;
+        return move == MOVE_MASK ? NO_MOVE : move;
+    }
+
+    /** Return the search depth recorded in ENTRY. */
+    static int depth(long entry) {
+        return (int) (entry >>> DEPTH_SHIFT) & DEPTH_MASK;
+    }
+
+    /** Return the bound type (EXACT, LOWER, or UPPER) of ENTRY. */
+    static int bound(long entry) {
+        return (int) (entry >>> BOUND_SHIFT) & BOUND_MASK;
+    }
+
+    /** Return the search generation that made ENTRY. */
+    private static int age(long entry) {
+        return (int) (entry >>> AGE_SHIFT) & AGE_MASK;
+    }
+
+    /** Layout of an entry: the score occupies the low 32 bits, followed
+     *  by the move, depth, bound type, and age. */
+    private static final int
+        MOVE_SHIFT = 32, MOVE_MASK = 0xffff,
+        DEPTH_SHIFT = 48, DEPTH_MASK = 0xff,
+        BOUND_SHIFT = 56, BOUND_MASK = 0x3,
+        AGE_SHIFT = 58, AGE_MASK = 0x3f;
+
+    /** Bytes occupied by one slot. */
+    private static final int SLOT_BYTES = 2 * Long.BYTES;
+
+    /** Log base 2 of the largest number of slots. */
+    private static final int MAX_LOG_SLOTS = 30;
+
+    /** Hash keys of the entries, each XOR-ed with its entry, indexed by
+     *  slot. */
+    private final long[] _keys;
+    /** Packed entries, indexed by slot.  0 denotes an empty slot. */
+    private final long[] _entries;
+    /** Mask selecting a slot number from a hash key. */
+    private final long _mask;
+    /** Generation number of the current search. */
+    private int _age;
+}